@@ -0,0 +1,185 @@
+package com.example.api;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounds the flows the web API has in flight, per operation and per caller.
+ * <p>
+ * A flow-starting request first takes one of its caller's slots, then one of its operation's. A caller that has all
+ * its slots in use is turned away with 429. When the operation is full the request waits in a bounded queue, and is
+ * turned away with 503 if the queue is full or no slot frees up in time. Both carry a {@code Retry-After}. Slots are
+ * held until the flow finishes, not just until the request returns, so clients that time out and retry cannot pile up
+ * flows behind the limit.
+ * <p>
+ * Configured with system properties on the web server:
+ * <ul>
+ * <li>{@code fx.admission.maxInFlight}: flows in flight per operation, 64 by default.</li>
+ * <li>{@code fx.admission.maxPerCaller}: flows in flight per caller across all operations, 16 by default.</li>
+ * <li>{@code fx.admission.maxQueue}: requests waiting per operation, 128 by default.</li>
+ * <li>{@code fx.admission.maxWaitMillis}: how long a queued request waits, 1000 by default.</li>
+ * <li>{@code fx.admission.retryAfterSeconds}: the {@code Retry-After} sent with rejections, 1 by default.</li>
+ * </ul>
+ */
+public class AdmissionController {
+
+    private final int maxInFlight = Integer.getInteger("fx.admission.maxInFlight", 64);
+    private final int maxPerCaller = Integer.getInteger("fx.admission.maxPerCaller", 16);
+    private final int maxQueue = Integer.getInteger("fx.admission.maxQueue", 128);
+    private final long maxWaitMillis = Long.getLong("fx.admission.maxWaitMillis", 1000L);
+    private final int retryAfterSeconds = Integer.getInteger("fx.admission.retryAfterSeconds", 1);
+
+    private final Map<String, Gate> gates = new ConcurrentHashMap<>();
+
+    /**
+     * Callers that go quiet are forgotten. A caller evicted while it still holds slots briefly gets a fresh set.
+     */
+    private final LoadingCache<String, Semaphore> callers = CacheBuilder.newBuilder()
+            .expireAfterAccess(10, TimeUnit.MINUTES)
+            .maximumSize(100_000)
+            .build(new CacheLoader<String, Semaphore>() {
+                @Override
+                public Semaphore load(String caller) {
+                    return new Semaphore(maxPerCaller);
+                }
+            });
+
+    public int getMaxPerCaller() {
+        return maxPerCaller;
+    }
+
+    /**
+     * Takes a slot for {@code caller} to start an {@code operation} flow, waiting in the operation's queue if needed.
+     *
+     * @throws WebApplicationException with 429 or 503 if the request is turned away.
+     */
+    public Permit acquire(String operation, String caller) {
+        Gate gate = gates.computeIfAbsent(operation, o -> new Gate());
+        Semaphore callerSlots = callers.getUnchecked(caller);
+
+        if (!callerSlots.tryAcquire()) {
+            gate.rejectedCaller.increment();
+            throw reject(429, caller + " already has " + maxPerCaller + " flows in flight");
+        }
+
+        try {
+            if (!gate.slots.tryAcquire()) {
+                queue(gate, operation);
+            }
+        } catch (WebApplicationException e) {
+            callerSlots.release();
+            throw e;
+        }
+
+        gate.admitted.increment();
+        return new Permit(gate.slots, callerSlots);
+    }
+
+    /**
+     * Appends in-flight flows, queue depth, admissions and rejections per operation in the Prometheus text format.
+     */
+    public void render(StringBuilder out) {
+        Map<String, Gate> sorted = new TreeMap<>(gates);
+
+        ApiMetrics.header(out, "example_api_admission_in_flight", "gauge", "Flows holding an admission slot, per operation.");
+        sorted.forEach((operation, gate) -> ApiMetrics.sample(out, "example_api_admission_in_flight", labels(operation), maxInFlight - gate.slots.availablePermits()));
+
+        ApiMetrics.header(out, "example_api_admission_queue_depth", "gauge", "Requests waiting for a slot, per operation.");
+        sorted.forEach((operation, gate) -> ApiMetrics.sample(out, "example_api_admission_queue_depth", labels(operation), gate.queued.get()));
+
+        ApiMetrics.header(out, "example_api_admission_admitted_total", "counter", "Requests admitted, per operation.");
+        sorted.forEach((operation, gate) -> ApiMetrics.sample(out, "example_api_admission_admitted_total", labels(operation), gate.admitted.sum()));
+
+        ApiMetrics.header(out, "example_api_admission_rejected_total", "counter", "Requests turned away, per operation and reason.");
+        sorted.forEach((operation, gate) -> {
+            ApiMetrics.sample(out, "example_api_admission_rejected_total", labels(operation) + ",reason=\"caller\"", gate.rejectedCaller.sum());
+            ApiMetrics.sample(out, "example_api_admission_rejected_total", labels(operation) + ",reason=\"queue_full\"", gate.rejectedQueueFull.sum());
+            ApiMetrics.sample(out, "example_api_admission_rejected_total", labels(operation) + ",reason=\"timeout\"", gate.rejectedTimeout.sum());
+        });
+    }
+
+    private void queue(Gate gate, String operation) {
+        if (gate.queued.incrementAndGet() > maxQueue) {
+            gate.queued.decrementAndGet();
+            gate.rejectedQueueFull.increment();
+            throw reject(503, operation + " is at capacity");
+        }
+
+        boolean admitted;
+        try {
+            admitted = gate.slots.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            admitted = false;
+        } finally {
+            gate.queued.decrementAndGet();
+        }
+
+        if (!admitted) {
+            gate.rejectedTimeout.increment();
+            throw reject(503, operation + " is at capacity");
+        }
+    }
+
+    private WebApplicationException reject(int status, String message) {
+        return new WebApplicationException(message, Response.status(status)
+                .header(HttpHeaders.RETRY_AFTER, retryAfterSeconds)
+                .type(MediaType.TEXT_PLAIN_TYPE)
+                .entity(message)
+                .build());
+    }
+
+    private static String labels(String operation) {
+        return "operation=\"" + operation + "\"";
+    }
+
+    private final class Gate {
+        private final Semaphore slots = new Semaphore(maxInFlight);
+        private final AtomicInteger queued = new AtomicInteger();
+        private final LongAdder admitted = new LongAdder();
+        private final LongAdder rejectedCaller = new LongAdder();
+        private final LongAdder rejectedQueueFull = new LongAdder();
+        private final LongAdder rejectedTimeout = new LongAdder();
+    }
+
+    /**
+     * A caller's slot and an operation's slot, given back together exactly once.
+     */
+    public static final class Permit {
+        private final Semaphore operationSlots;
+        private final Semaphore callerSlots;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(Semaphore operationSlots, Semaphore callerSlots) {
+            this.operationSlots = operationSlots;
+            this.callerSlots = callerSlots;
+        }
+
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                operationSlots.release();
+                callerSlots.release();
+            }
+        }
+
+        public void releaseWhenDone(ListenableFuture<?> flowResult) {
+            flowResult.addListener(this::release, MoreExecutors.directExecutor());
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package com.example.api;
+
+import com.example.service.LatencyHistogram;
+import net.corda.core.messaging.CordaRPCOps;
+import org.glassfish.jersey.server.ContainerResponse;
+import org.glassfish.jersey.server.monitoring.ApplicationEvent;
+import org.glassfish.jersey.server.monitoring.ApplicationEventListener;
+import org.glassfish.jersey.server.monitoring.RequestEvent;
+import org.glassfish.jersey.server.monitoring.RequestEventListener;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request metrics for the web API, rendered in the Prometheus text format by {@code GET metrics/prometheus}.
+ * <p>
+ * Registered with Jersey as a filter and writer interceptor, it keeps per endpoint (resource method) the request count,
+ * requests in flight, a latency histogram up to the last byte written, 4xx and 5xx counts, response bytes, and the
+ * number of {@link CordaRPCOps} calls made while serving the request. RPC calls are counted by the proxy returned from
+ * {@link #instrument}, which also counts them per RPC method. Everything is a striped counter or atomic, so it stays on
+ * in production.
+ * <p>
+ * RPC calls are attributed to the request whose thread makes them while its resource method runs; calls made after an
+ * asynchronous request has been suspended are only counted per method.
+ * <p>
+ * It also listens to Jersey's request events: the resource method finishing, on the request thread, stops counting RPC
+ * calls there, and the end of the request closes its books even if it failed with an exception nothing mapped.
+ */
+@Provider
+public class ApiMetrics implements ContainerRequestFilter, ContainerResponseFilter, WriterInterceptor, ApplicationEventListener {
+
+    private static final Map<CordaRPCOps, ApiMetrics> BY_RPC = new ConcurrentHashMap<>();
+    private static final String PROPERTY = ApiMetrics.class.getName();
+    private static final ThreadLocal<LongAdder> CURRENT_RPC_CALLS = new ThreadLocal<>();
+    private static final double[] BUCKET_SECONDS = {0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60};
+
+    private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> rpcCalls = new ConcurrentHashMap<>();
+
+    @Context
+    private ResourceInfo resourceInfo;
+
+    /**
+     * The metrics of the web server connected through {@code rpc}. The plugin's web API factories all get the same
+     * connection, so they share one instance.
+     */
+    public static ApiMetrics of(CordaRPCOps rpc) {
+        return BY_RPC.computeIfAbsent(rpc, r -> new ApiMetrics());
+    }
+
+    /**
+     * Wraps {@code rpc} so every call through it is counted.
+     */
+    public CordaRPCOps instrument(CordaRPCOps rpc) {
+        return (CordaRPCOps) Proxy.newProxyInstance(CordaRPCOps.class.getClassLoader(), new Class<?>[]{CordaRPCOps.class},
+                (proxy, method, args) -> {
+                    if (method.getDeclaringClass() != Object.class) {
+                        rpcCalls.computeIfAbsent(method.getName(), name -> new LongAdder()).increment();
+
+                        LongAdder current = CURRENT_RPC_CALLS.get();
+                        if (current != null) {
+                            current.increment();
+                        }
+                    }
+
+                    try {
+                        return method.invoke(rpc, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    @Override
+    public void filter(ContainerRequestContext request) {
+        String name = resourceInfo.getResourceMethod() == null ? "unmatched" : resourceInfo.getResourceMethod().getName();
+        Endpoint endpoint = endpoints.computeIfAbsent(request.getMethod() + " " + name,
+                key -> new Endpoint(request.getMethod(), name));
+
+        Exchange exchange = new Exchange(endpoint);
+        endpoint.inFlight.incrementAndGet();
+        request.setProperty(PROPERTY, exchange);
+    }
+
+    @Override
+    public void filter(ContainerRequestContext request, ContainerResponseContext response) {
+        Object exchange = request.getProperty(PROPERTY);
+        if (!(exchange instanceof Exchange)) {
+            return;
+        }
+
+        ((Exchange) exchange).status = response.getStatus();
+        if (!response.hasEntity()) {
+            ((Exchange) exchange).finish(0);
+        }
+    }
+
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+        Object exchange = context.getProperty(PROPERTY);
+        if (!(exchange instanceof Exchange)) {
+            context.proceed();
+            return;
+        }
+
+        CountingOutputStream out = new CountingOutputStream(context.getOutputStream());
+        context.setOutputStream(out);
+
+        try {
+            context.proceed();
+        } finally {
+            ((Exchange) exchange).finish(out.count);
+        }
+    }
+
+    @Override
+    public void onEvent(ApplicationEvent event) {
+    }
+
+    @Override
+    public RequestEventListener onRequest(RequestEvent start) {
+        return this::onRequestEvent;
+    }
+
+    private void onRequestEvent(RequestEvent event) {
+        Object exchange = event.getContainerRequest().getProperty(PROPERTY);
+        if (!(exchange instanceof Exchange)) {
+            return;
+        }
+
+        switch (event.getType()) {
+            case RESOURCE_METHOD_START:
+                CURRENT_RPC_CALLS.set(((Exchange) exchange).rpcCalls);
+                break;
+            case RESOURCE_METHOD_FINISHED:
+                // Same thread as the start, even for a suspended request; the worker goes on to serve others.
+                CURRENT_RPC_CALLS.remove();
+                break;
+            case FINISHED:
+                // Normally already finished by the response filter or writer; not if the request failed unmapped.
+                ContainerResponse response = event.getContainerResponse();
+                ((Exchange) exchange).status = response == null ? 500 : response.getStatus();
+                ((Exchange) exchange).finish(0);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Renders all metrics in the Prometheus text exposition format, version 0.0.4.
+     */
+    public String render() {
+        StringBuilder out = new StringBuilder();
+        Map<String, Endpoint> sorted = new TreeMap<>(endpoints);
+
+        header(out, "example_api_requests_total", "counter", "Requests served, per endpoint.");
+        sorted.values().forEach(e -> sample(out, "example_api_requests_total", e.labels(), e.latency.getCount()));
+
+        header(out, "example_api_requests_in_flight", "gauge", "Requests being served, per endpoint.");
+        sorted.values().forEach(e -> sample(out, "example_api_requests_in_flight", e.labels(), e.inFlight.get()));
+
+        header(out, "example_api_errors_total", "counter", "Responses with a 4xx or 5xx status, per endpoint.");
+        sorted.values().forEach(e -> {
+            sample(out, "example_api_errors_total", e.labels() + ",class=\"4xx\"", e.clientErrors.sum());
+            sample(out, "example_api_errors_total", e.labels() + ",class=\"5xx\"", e.serverErrors.sum());
+        });
+
+        header(out, "example_api_response_bytes_total", "counter", "Response body bytes written, per endpoint.");
+        sorted.values().forEach(e -> sample(out, "example_api_response_bytes_total", e.labels(), e.responseBytes.sum()));
+
+        header(out, "example_api_rpc_calls_total", "counter", "Node RPC calls made while serving requests, per endpoint.");
+        sorted.values().forEach(e -> sample(out, "example_api_rpc_calls_total", e.labels(), e.rpcCalls.sum()));
+
+        header(out, "example_api_request_duration_seconds", "histogram", "Time to the last byte of the response, per endpoint.");
+        sorted.values().forEach(e -> {
+            for (double le : BUCKET_SECONDS) {
+                long nanos = (long) (le * TimeUnit.SECONDS.toNanos(1));
+                sample(out, "example_api_request_duration_seconds_bucket", e.labels() + ",le=\"" + le + "\"", e.latency.countAtOrBelow(nanos));
+            }
+            sample(out, "example_api_request_duration_seconds_bucket", e.labels() + ",le=\"+Inf\"", e.latency.getCount());
+            out.append("example_api_request_duration_seconds_sum{").append(e.labels()).append("} ")
+                    .append(e.latency.getTotalNanos() / (double) TimeUnit.SECONDS.toNanos(1)).append('\n');
+            sample(out, "example_api_request_duration_seconds_count", e.labels(), e.latency.getCount());
+        });
+
+        header(out, "example_rpc_calls_total", "counter", "Node RPC calls made by the web server, per RPC method.");
+        new TreeMap<>(rpcCalls).forEach((method, calls) -> sample(out, "example_rpc_calls_total", "method=\"" + method + "\"", calls.sum()));
+
+        return out.toString();
+    }
+
+    static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    static void sample(StringBuilder out, String name, String labels, long value) {
+        out.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+    }
+
+    private static final class Endpoint {
+        private final String method;
+        private final String name;
+        private final AtomicLong inFlight = new AtomicLong();
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder clientErrors = new LongAdder();
+        private final LongAdder serverErrors = new LongAdder();
+        private final LongAdder responseBytes = new LongAdder();
+        private final LongAdder rpcCalls = new LongAdder();
+
+        private Endpoint(String method, String name) {
+            this.method = method;
+            this.name = name;
+        }
+
+        private String labels() {
+            return "endpoint=\"" + name + "\",method=\"" + method + "\"";
+        }
+    }
+
+    /**
+     * One request in flight.
+     */
+    private static final class Exchange {
+        private final Endpoint endpoint;
+        private final long startedNanos = System.nanoTime();
+        private final LongAdder rpcCalls = new LongAdder();
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private volatile int status = 200;
+
+        private Exchange(Endpoint endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        private void finish(long bytes) {
+            if (!finished.compareAndSet(false, true)) {
+                return;
+            }
+
+            endpoint.latency.record(System.nanoTime() - startedNanos);
+            endpoint.inFlight.decrementAndGet();
+            endpoint.responseBytes.add(bytes);
+            endpoint.rpcCalls.add(rpcCalls.sum());
+
+            if (status >= 500) {
+                endpoint.serverErrors.increment();
+            } else if (status >= 400) {
+                endpoint.clientErrors.increment();
+            }
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -1,10 +1,22 @@
 package com.example.api;
 
+import com.example.flow.BatchPaymentFlow;
 import com.example.flow.ExampleFlow;
+import com.example.flow.ExitFlow;
+import com.example.flow.FxSwapFlow;
+import com.example.flow.MetricsFlow;
+import com.example.flow.NettingFlow;
+import com.example.flow.PaymentFlow;
+import com.example.flow.RateFlow;
+import com.example.models.BatchEntryResult;
+import com.example.models.CheckpointStats;
 import com.example.models.CurrencyRate;
+import com.example.models.FlowStatus;
+import com.example.models.IssueRequest;
+import com.example.models.PayRequest;
 import com.example.models.PeerInfo;
+import com.example.models.StageLatency;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableMap;
 import net.corda.core.contracts.*;
@@ -13,18 +25,32 @@ import net.corda.core.crypto.Party;
 import net.corda.core.crypto.SecureHash;
 import net.corda.core.messaging.CordaRPCOps;
 import net.corda.core.messaging.FlowHandle;
+import net.corda.core.messaging.FlowProgressHandle;
 import net.corda.core.node.NodeInfo;
-import net.corda.core.node.ServiceEntry;
 import net.corda.core.serialization.OpaqueBytes;
 import net.corda.core.transactions.SignedTransaction;
 import net.corda.flows.CashFlowCommand;
 import net.corda.flows.IssuerFlow;
 import net.corda.jackson.JacksonSupport;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.CompletionCallback;
+import javax.ws.rs.container.ConnectionCallback;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.GenericEntity;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import static java.util.Collections.singletonMap;
@@ -38,19 +64,75 @@ public class ExampleApi {
 
     private final String NOTARY_NAME = "Controller";
 
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int MAX_RATE_BATCH = 10000;
+    private static final int MAX_LONG_POLL_SECONDS = 60;
+    private static final int MAX_BATCH_WAIT_SECONDS = 60;
+    private static final int MAX_BATCH_SIZE = 10000;
+    private static final int DEFAULT_BATCH_WINDOW = 32;
+    private static final int MAX_BATCH_WINDOW = 256;
+    private static final int DEFAULT_PAYMENT_CHUNK = 50;
+    private static final int MAX_PAYMENT_CHUNK = 500;
+
     private final CordaRPCOps services;
 
-    private List<Party> notaries;
-    private List<Party> peers;
-    private List<Party> issuers;
+    private final ApiMetrics apiMetrics;
+
+    private final AdmissionController admission = new AdmissionController();
+
+    /**
+     * Proxies whose {@code X-Forwarded-For} is believed, from the comma-separated {@code fx.api.trustedProxies}
+     * system property. None by default, so callers are told apart by their own address.
+     */
+    private final Set<String> trustedProxies = Arrays.stream(System.getProperty("fx.api.trustedProxies", "").split(","))
+            .map(String::trim)
+            .filter(address -> !address.isEmpty())
+            .collect(Collectors.toSet());
+
+    private final IdempotencyKeys idempotencyKeys = new IdempotencyKeys();
+
+    @Context
+    private HttpServletRequest httpRequest;
+
+    private final VaultIndex vaultIndex;
+
+    private final ObjectMapper rpcMapper;
+
+    @Context
+    private UriInfo uriInfo;
+
+    private final NetworkMapView networkMap;
+
+    private final FlowTracker flowTracker = new FlowTracker();
+    private final FlowPipeline flowPipeline = new FlowPipeline(flowTracker);
+
+    private final RenderedResponse peersResponse;
+    private final RenderedResponse tradersResponse;
+    private final RenderedResponse notariesResponse;
+    private final RenderedResponse identityResponse;
+
+    public ExampleApi(CordaRPCOps rpc) {
+        this.apiMetrics = ApiMetrics.of(rpc);
+        CordaRPCOps services = apiMetrics.instrument(rpc);
 
-    public ExampleApi(CordaRPCOps services) {
         this.myLegalName = services.nodeIdentity().getLegalIdentity().getName();
         this.services = services;
-
-        updatePeers();
-        updateIssuers();
-        updateNotaries();
+        this.vaultIndex = new VaultIndex(services);
+        this.rpcMapper = JacksonSupport.createDefaultMapper(services);
+        this.networkMap = new NetworkMapView(services, myLegalName, NOTARY_NAME);
+
+        this.peersResponse = new RenderedResponse(rpcMapper, this::peerInfos);
+        this.tradersResponse = new RenderedResponse(rpcMapper, this::traderInfos);
+        this.notariesResponse = new RenderedResponse(rpcMapper, networkMap::getNotaries);
+        this.identityResponse = new RenderedResponse(rpcMapper, this::legalIdentity);
+
+        networkMap.addListener(() -> {
+            peersResponse.invalidate();
+            tradersResponse.invalidate();
+            notariesResponse.invalidate();
+            identityResponse.invalidate();
+        });
     }
 
     public static <T> T getLastElement(final Iterable<T> elements) {
@@ -69,6 +151,8 @@ public class ExampleApi {
     public String issueCurrency(@PathParam("peerName") String peerName, @PathParam("amount") int quantity, @PathParam("currency") String currency) {
         try {
             return issueMoney(peerName, quantity, ContractsDSL.currency(currency));
+        } catch (WebApplicationException e) {
+            throw e;
         } catch (Exception e) {
             e.printStackTrace();
             return e.getMessage();
@@ -80,6 +164,8 @@ public class ExampleApi {
     public String issue(@PathParam("peerName") String peerName, @PathParam("amount") int quantity) {
         try {
             return issueMoney(peerName, quantity, ContractsDSL.USD);
+        } catch (WebApplicationException e) {
+            throw e;
         } catch (Exception e) {
             e.printStackTrace();
             return e.getMessage();
@@ -87,17 +173,13 @@ public class ExampleApi {
     }
 
     private String issueMoney(String peerName, long quantity, Currency currency) throws Exception {
-        if (notaries.isEmpty()) {
-            updateNotaries();
-        }
-
         Party party = services.partyFromName(peerName);
 
 
-        CashFlowCommand.IssueCash cash = new CashFlowCommand.IssueCash(new Amount<>(quantity, currency), OpaqueBytes.Companion.of((byte) 1), party, notaries.get(0));
+        CashFlowCommand.IssueCash cash = new CashFlowCommand.IssueCash(new Amount<>(quantity, currency), OpaqueBytes.Companion.of((byte) 1), party, networkMap.getFirstNotary());
 
-        FlowHandle handle = services.startFlowDynamic(IssuerFlow.IssuanceRequester.class, cash.getAmount(), cash.getRecipient(), cash.getIssueRef(), services.nodeIdentity().getLegalIdentity());
-        SignedTransaction signedTransaction = (SignedTransaction) handle.getReturnValue().get(10 * 1000, TimeUnit.MILLISECONDS);
+        FlowHandle<SignedTransaction> handle = admitted("issue", () -> services.startFlowDynamic(IssuerFlow.IssuanceRequester.class, cash.getAmount(), cash.getRecipient(), cash.getIssueRef(), services.nodeIdentity().getLegalIdentity()));
+        SignedTransaction signedTransaction = handle.getReturnValue().get(10 * 1000, TimeUnit.MILLISECONDS);
 
         return signedTransaction.getId().toString();
     }
@@ -114,20 +196,14 @@ public class ExampleApi {
         }
 
         try {
-            Amount<Issued<Currency>> amount = new Amount<>(
-                    quantity,
-                    new Issued<>(new PartyAndReference(issuers.get(0), OpaqueBytes.Companion.of((byte) 1)),
-                            ContractsDSL.currency(currency)
-                    )
-            );
-
-            CashFlowCommand.PayCash cash = new CashFlowCommand.PayCash(amount, party);
-
-            FlowHandle<SignedTransaction> handle = cash.startFlow(services);
-
-            SignedTransaction tx = handle.getReturnValue().get(10 * 1000, TimeUnit.MILLISECONDS);
-
-            return tx.getId().toString();
+            FlowHandle<SecureHash> handle = admitted("pay", () -> services.startFlowDynamic(
+                    PaymentFlow.class,
+                    issuedAmount(quantity, currency),
+                    party));
+
+            return handle.getReturnValue().get(10 * 1000, TimeUnit.MILLISECONDS).toString();
+        } catch (WebApplicationException e) {
+            throw e;
         } catch (Exception e) {
             return e.getMessage();
         }
@@ -138,21 +214,38 @@ public class ExampleApi {
     @Produces(MediaType.APPLICATION_JSON)
     public String exchange(@PathParam("quantity") int quantity, @PathParam("recipient") String recipient, @PathParam("currency") String currency) {
 
-        Amount<Issued<Currency>> amount = new Amount<>(
-                quantity,
-                new Issued<>(new PartyAndReference(issuers.get(0), OpaqueBytes.Companion.of((byte) 1)),
-                        ContractsDSL.currency(currency)
-                )
-        );
+        FlowHandle<SecureHash> flowHandle = admitted("exchange", () -> services.startFlowDynamic(
+                ExampleFlow.MasterFxFlow.class,
+                services.partyFromName(recipient),
+                services.partyFromName("NodeC"),
+                issuedAmount(quantity, currency)));
 
-        FlowHandle flowHandle = services.startFlowDynamic(
+        return awaitExchange(flowHandle);
+    }
+
+    /**
+     * As {@link #exchange(int, String, String)}, but the caller names the currency the recipient is paid in, so the
+     * flow does not have to look it up.
+     */
+    @GET
+    @Path("exchange/{recipient}/{quantity}/{currency}/{targetCurrency}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public String exchangeTo(@PathParam("quantity") int quantity, @PathParam("recipient") String recipient,
+                             @PathParam("currency") String currency, @PathParam("targetCurrency") String targetCurrency) {
+
+        FlowHandle<SecureHash> flowHandle = admitted("exchange", () -> services.startFlowDynamic(
                 ExampleFlow.MasterFxFlow.class,
                 services.partyFromName(recipient),
                 services.partyFromName("NodeC"),
-                amount);
+                issuedAmount(quantity, currency),
+                ContractsDSL.currency(targetCurrency)));
+
+        return awaitExchange(flowHandle);
+    }
 
+    private String awaitExchange(FlowHandle<SecureHash> flowHandle) {
         try {
-            return ((SignedTransaction) flowHandle.getReturnValue().get(10 * 10000, TimeUnit.MILLISECONDS)).getId().toString();
+            return flowHandle.getReturnValue().get(10 * 10000, TimeUnit.MILLISECONDS).toString();
         } catch (Exception e) {
             System.out.println("error1: " + e.getMessage());
         }
@@ -160,6 +253,53 @@ public class ExampleApi {
         return "done";
     }
 
+    /**
+     * How a netted exchange was settled: the settling transaction id, or {@code failed: <reason>}. Empty while the
+     * trader has not settled the ticket yet.
+     */
+    @GET
+    @Path("exchange/confirmations/{ticket}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public List<String> getExchangeConfirmations(@PathParam("ticket") String ticket) {
+        SecureHash id;
+        try {
+            id = SecureHash.parse(ticket);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException("Not a ticket: " + ticket);
+        }
+
+        try {
+            FlowHandle<List<String>> handle = services.startFlowDynamic(NettingFlow.Lookup.class, id);
+            return handle.getReturnValue().get(10 * 1000, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Exchanges through {@link FxSwapFlow}: one jointly signed transaction instead of two consecutive payments.
+     */
+    @GET
+    @Path("swap/{recipient}/{quantity}/{currency}/{targetCurrency}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public String swap(@PathParam("quantity") int quantity, @PathParam("recipient") String recipient,
+                       @PathParam("currency") String currency, @PathParam("targetCurrency") String targetCurrency) {
+        Party party = found(services.partyFromName(recipient));
+
+        FlowHandle<SignedTransaction> handle = admitted("swap", () -> services.startFlowDynamic(
+                FxSwapFlow.Initiator.class,
+                party,
+                services.partyFromName("NodeC"),
+                issuedAmount(quantity, currency),
+                ContractsDSL.currency(targetCurrency)));
+
+        try {
+            return handle.getReturnValue().get(10 * 10000, TimeUnit.MILLISECONDS).getId().toString();
+        } catch (Exception e) {
+            return e.getMessage();
+        }
+    }
+
     @GET
     @Path("exit/{amount}/{currency}")
     public String exit(@PathParam("amount") int quantity, @PathParam("currency") String currency) {
@@ -168,17 +308,16 @@ public class ExampleApi {
 
             System.out.println(amount);
 
-            if (issuers.isEmpty()) {
-                updateIssuers();
-            }
-
-            CashFlowCommand.ExitCash exitCash = new CashFlowCommand.ExitCash(amount, issuers.get(0).ref(OpaqueBytes.Companion.of((byte) 1)).getReference());
-
-            FlowHandle<SignedTransaction> handle = exitCash.startFlow(services);
+            FlowHandle<SignedTransaction> handle = admitted("exit", () -> services.startFlowDynamic(
+                    ExitFlow.class,
+                    amount,
+                    OpaqueBytes.Companion.of((byte) 1)));
 
             SignedTransaction tx = handle.getReturnValue().get(10 * 1000, TimeUnit.MILLISECONDS);
 
             return tx.getId().toString();
+        } catch (WebApplicationException e) {
+            throw e;
         } catch (Exception e) {
 
             return e.getMessage();
@@ -186,26 +325,405 @@ public class ExampleApi {
 
     }
 
+    /**
+     * Issues to many peers at once. Flows are started as a pipeline with at most {@code window} in flight, capped at
+     * the caller's admission limit, and the response lists one result per entry, in request order. Each entry is
+     * admitted like a single issue; entries turned away are rejected with the reason. Retrying with the same
+     * {@code Idempotency-Key} and body reports the original entries instead of issuing again. The request waits at most {@code timeout} seconds,
+     * capped at a minute; entries still running then are reported as such and can be followed under
+     * {@code flows/{id}}, and entries not yet started are rejected.
+     */
+    @POST
+    @Path("issue/batch")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public List<BatchEntryResult> issueBatch(List<IssueRequest> requests,
+                                             @QueryParam("window") @DefaultValue("" + DEFAULT_BATCH_WINDOW) int window,
+                                             @QueryParam("timeout") @DefaultValue("" + MAX_BATCH_WAIT_SECONDS) int timeoutSeconds) {
+        if (requests == null || requests.isEmpty() || requests.size() > MAX_BATCH_SIZE) {
+            throw new BadRequestException("Expected between 1 and " + MAX_BATCH_SIZE + " entries");
+        }
+
+        Party me = services.nodeIdentity().getLegalIdentity();
+        OpaqueBytes issueRef = OpaqueBytes.Companion.of((byte) 1);
+
+        long timeoutMillis = Math.max(0, Math.min(timeoutSeconds, MAX_BATCH_WAIT_SECONDS)) * 1000L;
+
+        int maxWindow = Math.min(MAX_BATCH_WINDOW, admission.getMaxPerCaller());
+
+        List<BatchEntryResult> results = once(requests, () -> flowPipeline.run("issue", requests.size(), Math.max(1, Math.min(window, maxWindow)), timeoutMillis, i -> {
+            IssueRequest request = requests.get(i);
+            Party party = networkMap.getParty(request.getPeer());
+
+            if (party == null) {
+                throw new NotFoundException("Unknown peer " + request.getPeer());
+            }
+            if (request.getAmount() <= 0) {
+                throw new BadRequestException("Amount must be positive");
+            }
+
+            Currency currency = ContractsDSL.currency(request.getCurrency() == null ? "USD" : request.getCurrency());
+
+            return admit("issue", () -> services.startFlowDynamic(
+                    IssuerFlow.IssuanceRequester.class, new Amount<>(request.getAmount(), currency), party, issueRef, me));
+        }));
+
+        // A retry with the same Idempotency-Key gets the original entries, as they stand now.
+        List<BatchEntryResult> current = new ArrayList<>(results.size());
+        for (BatchEntryResult result : results) {
+            FlowStatus status = result.getFlowId() == null ? null : flowTracker.get(result.getFlowId());
+            current.add(status == null ? result : BatchEntryResult.of(result.getIndex(), status));
+        }
+
+        return current;
+    }
+
+    /**
+     * Pays many peers in one go. Recipients are grouped into transactions of up to {@code chunkSize} outputs each,
+     * which runs as a single flow; the response is the flow's status, as for the other asynchronous endpoints. Chunks
+     * succeed or fail on their own, so the flow's result lists each chunk's transaction id or failure. A chunk with a
+     * transaction id and a warning was committed by the notary but may not have reached its recipients; do not retry it.
+     */
+    @POST
+    @Path("pay/batch/{currency}")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response payBatch(List<PayRequest> requests,
+                             @PathParam("currency") String currency,
+                             @QueryParam("chunkSize") @DefaultValue("" + DEFAULT_PAYMENT_CHUNK) int chunkSize) {
+        if (requests == null || requests.isEmpty() || requests.size() > MAX_BATCH_SIZE) {
+            throw new BadRequestException("Expected between 1 and " + MAX_BATCH_SIZE + " entries");
+        }
+
+        ArrayList<BatchPaymentFlow.Payment> payments = new ArrayList<>(requests.size());
+        for (PayRequest request : requests) {
+            Party party = networkMap.getParty(request.getPeer());
+
+            if (party == null) {
+                throw new NotFoundException("Unknown peer " + request.getPeer());
+            }
+            if (request.getAmount() <= 0) {
+                throw new BadRequestException("Amount must be positive");
+            }
+
+            payments.add(new BatchPaymentFlow.Payment(party, request.getAmount()));
+        }
+
+        FlowProgressHandle<?> handle = admitted("pay-batch", requests, () -> services.startTrackedFlowDynamic(
+                BatchPaymentFlow.class,
+                issuedAmount(0, currency).getToken(),
+                payments,
+                Math.max(1, Math.min(chunkSize, MAX_PAYMENT_CHUNK))));
+
+        return accepted("pay-batch", handle);
+    }
+
+    @POST
+    @Path("async/issue/{peerName}/{amount}/{currency}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response issueAsync(@PathParam("peerName") String peerName, @PathParam("amount") int quantity, @PathParam("currency") String currency) {
+        Party party = found(services.partyFromName(peerName));
+
+        FlowProgressHandle<?> handle = admitted("issue", () -> services.startTrackedFlowDynamic(
+                IssuerFlow.IssuanceRequester.class,
+                new Amount<>((long) quantity, ContractsDSL.currency(currency)),
+                party,
+                OpaqueBytes.Companion.of((byte) 1),
+                services.nodeIdentity().getLegalIdentity()));
+
+        return accepted("issue", handle);
+    }
+
+    @POST
+    @Path("async/pay/{peerName}/{amount}/{currency}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response payAsync(@PathParam("peerName") String peerName, @PathParam("amount") int quantity, @PathParam("currency") String currency) {
+        Party party = found(services.partyFromName(peerName));
+
+        FlowProgressHandle<?> handle = admitted("pay", () -> services.startTrackedFlowDynamic(
+                PaymentFlow.class,
+                issuedAmount(quantity, currency),
+                party));
+
+        return accepted("pay", handle);
+    }
+
+    @POST
+    @Path("async/exchange/{recipient}/{quantity}/{currency}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response exchangeAsync(@PathParam("quantity") int quantity, @PathParam("recipient") String recipient,
+                                  @PathParam("currency") String currency, @QueryParam("targetCurrency") String targetCurrency) {
+        Party party = found(services.partyFromName(recipient));
+
+        FlowProgressHandle<?> handle = admitted("exchange", () -> targetCurrency == null
+                ? services.startTrackedFlowDynamic(
+                        ExampleFlow.MasterFxFlow.class,
+                        party,
+                        services.partyFromName("NodeC"),
+                        issuedAmount(quantity, currency))
+                : services.startTrackedFlowDynamic(
+                        ExampleFlow.MasterFxFlow.class,
+                        party,
+                        services.partyFromName("NodeC"),
+                        issuedAmount(quantity, currency),
+                        ContractsDSL.currency(targetCurrency)));
+
+        return accepted("exchange", handle);
+    }
+
+    @POST
+    @Path("async/swap/{recipient}/{quantity}/{currency}/{targetCurrency}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response swapAsync(@PathParam("quantity") int quantity, @PathParam("recipient") String recipient,
+                              @PathParam("currency") String currency, @PathParam("targetCurrency") String targetCurrency) {
+        Party party = found(services.partyFromName(recipient));
+
+        FlowProgressHandle<?> handle = admitted("swap", () -> services.startTrackedFlowDynamic(
+                FxSwapFlow.Initiator.class,
+                party,
+                services.partyFromName("NodeC"),
+                issuedAmount(quantity, currency),
+                ContractsDSL.currency(targetCurrency)));
+
+        return accepted("swap", handle);
+    }
+
+    @POST
+    @Path("async/exit/{amount}/{currency}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response exitAsync(@PathParam("amount") int quantity, @PathParam("currency") String currency) {
+        FlowProgressHandle<?> handle = admitted("exit", () -> services.startTrackedFlowDynamic(
+                ExitFlow.class,
+                new Amount<>((long) quantity, ContractsDSL.currency(currency)),
+                OpaqueBytes.Companion.of((byte) 1)));
+
+        return accepted("exit", handle);
+    }
+
+    @GET
+    @Path("flows/{id}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public FlowStatus getFlowStatus(@PathParam("id") String id) {
+        return found(flowTracker.get(id));
+    }
+
+    /**
+     * Long-polls for a flow to finish. Answers as soon as the flow is done, or with its current status once the
+     * timeout runs out.
+     */
+    @GET
+    @Path("flows/{id}/result")
+    @Produces(MediaType.APPLICATION_JSON)
+    public void awaitFlow(@PathParam("id") String id,
+                          @QueryParam("timeout") @DefaultValue("30") int timeoutSeconds,
+                          @Suspended AsyncResponse response) {
+        FlowStatus status = found(flowTracker.get(id));
+
+        response.setTimeout(Math.max(0, Math.min(timeoutSeconds, MAX_LONG_POLL_SECONDS)), TimeUnit.SECONDS);
+        response.setTimeoutHandler(timedOut -> timedOut.resume(status));
+
+        // However the request ends (answered, timed out, or failed because the client went away), stop waiting.
+        AtomicReference<Runnable> forget = new AtomicReference<>(() -> {
+        });
+        response.register((CompletionCallback) failure -> forget.get().run());
+        response.register((ConnectionCallback) disconnected -> forget.get().run());
+
+        forget.set(flowTracker.whenDone(status, response::resume));
+        if (response.isDone()) {
+            forget.get().run();
+        }
+    }
+
+    /**
+     * Starts a flow under the {@link AdmissionController} limits of {@code operation}. The slot is held until the flow
+     * finishes. A request repeating an earlier {@code Idempotency-Key} gets the earlier flow back and takes no slot.
+     *
+     * @throws WebApplicationException with 429 or 503 if the caller or the operation is at its limit.
+     */
+    private <H extends FlowHandle<?>> H admitted(String operation, Supplier<H> start) {
+        return admitted(operation, null, start);
+    }
+
+    /**
+     * As {@link #admitted(String, Supplier)}, for a request with a {@code body} that a repeated key must also match.
+     */
+    private <H extends FlowHandle<?>> H admitted(String operation, Object body, Supplier<H> start) {
+        return once(body, () -> admit(operation, start));
+    }
+
+    /**
+     * As {@link #admitted}, without the {@code Idempotency-Key} lookup, for requests that start several flows.
+     */
+    private <H extends FlowHandle<?>> H admit(String operation, Supplier<H> start) {
+        AdmissionController.Permit permit = admission.acquire(operation, caller());
+
+        try {
+            H handle = start.get();
+            permit.releaseWhenDone(handle.getReturnValue());
+            return handle;
+        } catch (RuntimeException e) {
+            permit.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Starts a flow, or attaches to the one an earlier request from the same caller with the same
+     * {@code Idempotency-Key} started. Blocking endpoints then wait on the original flow's result and asynchronous ones
+     * report its status. The key only matches a request with the same method, path, query and {@code body}, which is
+     * compared by the hash of its JSON.
+     */
+    private <T> T once(Object body, Supplier<T> start) {
+        String key = httpRequest.getHeader(IdempotencyKeys.HEADER);
+
+        if (key == null) {
+            return start.get();
+        }
+
+        String query = uriInfo.getRequestUri().getRawQuery();
+        String request = httpRequest.getMethod() + " " + uriInfo.getPath() + (query == null ? "" : "?" + query);
+
+        if (body != null) {
+            try {
+                request += " body " + SecureHash.sha256(rpcMapper.writeValueAsBytes(body));
+            } catch (JsonProcessingException e) {
+                throw new BadRequestException("Could not read the request body: " + e.getMessage());
+            }
+        }
+
+        return idempotencyKeys.startOnce(caller(), key, request, start);
+    }
+
+    /**
+     * The client address. {@code X-Forwarded-For} is only read when the request comes from a trusted proxy, and then
+     * only as far back as the proxies it passed through are trusted: the caller is the last hop no trusted proxy
+     * vouches for, so a client cannot pick its own address by sending the header.
+     */
+    private String caller() {
+        String caller = httpRequest.getRemoteAddr();
+        String forwarded = httpRequest.getHeader("X-Forwarded-For");
+
+        if (forwarded == null || !trustedProxies.contains(caller)) {
+            return caller;
+        }
+
+        String[] hops = forwarded.split(",");
+        for (int i = hops.length - 1; i >= 0 && trustedProxies.contains(caller); i--) {
+            String hop = hops[i].trim();
+            if (hop.isEmpty()) {
+                break;
+            }
+            caller = hop;
+        }
+
+        return caller;
+    }
+
+    private Response accepted(String operation, FlowProgressHandle<?> handle) {
+        FlowStatus status = flowTracker.track(operation, handle.getId(), handle.getReturnValue(), handle.getProgress());
+
+        return Response.accepted(status)
+                .location(uriInfo.getBaseUriBuilder().path(ExampleApi.class).path("flows").path(status.getId()).build())
+                .build();
+    }
+
+    private Amount<Issued<Currency>> issuedAmount(long quantity, String currency) {
+        return new Amount<>(
+                quantity,
+                new Issued<>(new PartyAndReference(networkMap.getFirstIssuer(), OpaqueBytes.Companion.of((byte) 1)),
+                        ContractsDSL.currency(currency)
+                )
+        );
+    }
+
     @GET
     @Path("vault")
     @Produces(MediaType.APPLICATION_JSON)
-    public List<StateAndRef<ContractState>> getAllTransactions() {
-        return services.vaultAndUpdates().getFirst();
+    public Response getAllTransactions(@QueryParam("page") @DefaultValue("1") int page,
+                                       @QueryParam("limit") @DefaultValue("" + DEFAULT_PAGE_SIZE) int limit,
+                                       @QueryParam("cursor") String cursor) {
+        if (page < 1 || limit < 1) {
+            throw new BadRequestException("page and limit must be positive");
+        }
+
+        int pageSize = Math.min(limit, MAX_PAGE_SIZE);
+        VaultIndex.Page result = cursor == null
+                ? vaultIndex.getPage(page, pageSize)
+                : vaultIndex.getPageAfter(decodeCursor(cursor), pageSize);
+
+        Response.ResponseBuilder response = Response.ok(new GenericEntity<List<StateAndRef<ContractState>>>(result.getStates()) {
+        });
+
+        if (result.getLastSequence() != null) {
+            String next = encodeCursor(result.getLastSequence());
+            response.header("X-Next-Cursor", next)
+                    .link(uriInfo.getAbsolutePathBuilder()
+                            .queryParam("limit", pageSize)
+                            .queryParam("cursor", next)
+                            .build(), "next");
+        }
+
+        return response.build();
+    }
+
+    @GET
+    @Path("vault/export")
+    @Produces("application/x-ndjson")
+    public Response exportVault(@QueryParam("source") @DefaultValue("states") String source,
+                                @HeaderParam(HttpHeaders.ACCEPT_ENCODING) String acceptEncoding) {
+        Iterable<?> items;
+
+        switch (source) {
+            case "states":
+                items = vaultIndex.states();
+                break;
+            case "transactions":
+                items = services.verifiedTransactions().getFirst();
+                break;
+            default:
+                throw new BadRequestException("source must be states or transactions");
+        }
+
+        boolean gzip = VaultExport.acceptsGzip(acceptEncoding);
+        Response.ResponseBuilder response = Response.ok(new VaultExport(rpcMapper, items, gzip))
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+
+        if (gzip) {
+            response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+
+        return response.build();
+    }
+
+    private static String encodeCursor(long sequence) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(Long.toString(sequence).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static long decodeCursor(String cursor) {
+        try {
+            return Long.parseLong(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.US_ASCII));
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException("Invalid cursor");
+        }
     }
 
     @GET
     @Path("vault/{id}")
     @Produces(MediaType.APPLICATION_JSON)
     public StateAndRef<ContractState> getTransactionById(@PathParam("id") String id) {
+        StateAndRef<ContractState> stateAndRef;
 
-        for (StateAndRef stateAndRef : services.vaultAndUpdates().getFirst()) {
+        try {
+            stateAndRef = vaultIndex.getByTxHash(SecureHash.parse(id));
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException("Invalid transaction hash");
+        }
 
-            if (stateAndRef.getRef().getTxhash().equals(SecureHash.parse(id))) {
-                return stateAndRef;
-            }
+        if (stateAndRef == null) {
+            throw new NotFoundException("Could not find transaction");
         }
 
-        throw new NotFoundException("Could not find transaction");
+        return stateAndRef;
     }
 
     @GET
@@ -219,30 +737,26 @@ public class ExampleApi {
     @Path("issuers")
     @Produces(MediaType.APPLICATION_JSON)
     public List<String> getIssuers() {
-        updateIssuers();
-        return issuers.stream().map(Party::getName).collect(toList());
+        return networkMap.getIssuers().stream().map(Party::getName).collect(toList());
     }
 
     @GET
     @Path("issuers/{name}")
     @Produces(MediaType.APPLICATION_JSON)
     public Party getIssuerByName(@PathParam("name") String name) {
-        updateIssuers();
-        return issuers.stream()
-                .filter(party -> party.getName().equals(name))
-                .findFirst()
-                .orElseThrow(NotFoundException::new);
+        return found(networkMap.getIssuer(name));
     }
 
     @GET
     @Path("peers")
     @Produces(MediaType.APPLICATION_JSON)
-    public List<PeerInfo> getPeers() {
-        updatePeers();
+    public Response getPeers(@Context Request request) {
+        return peersResponse.respond(request);
+    }
 
-        return services
-                .networkMapUpdates()
-                .getFirst()
+    private List<PeerInfo> peerInfos() {
+        return networkMap
+                .getNodes()
                 .stream()
                 .filter(peer -> !peer.getLegalIdentity().getName().equals(myLegalName)
                         && !peer.getLegalIdentity().getName().equals(NOTARY_NAME))
@@ -259,11 +773,7 @@ public class ExampleApi {
     @Path("peers/{name}")
     @Produces(MediaType.APPLICATION_JSON)
     public Party getPeerByName(@PathParam("name") String name) {
-        updateIssuers();
-        return peers.stream()
-                .filter(party -> party.getName().equals(name))
-                .findFirst()
-                .orElseThrow(NotFoundException::new);
+        return found(networkMap.getPeer(name));
     }
 
     @GET
@@ -276,14 +786,15 @@ public class ExampleApi {
     @GET
     @Path("/traders")
     @Produces(MediaType.APPLICATION_JSON)
-    public List<PeerInfo> getTraders() {
-        return services
-                .networkMapUpdates()
-                .getFirst()
+    public Response getTraders(@Context Request request) {
+        return tradersResponse.respond(request);
+    }
+
+    private List<PeerInfo> traderInfos() {
+        return networkMap
+                .getNodes()
                 .stream()
-                .filter(peer -> !peer.getLegalIdentity().getName().equals(NOTARY_NAME)
-                        && isTrader(peer)
-                )
+                .filter(peer -> networkMap.getTrader(peer.getLegalIdentity().getName()) != null)
                 .map(nodeInfo -> new PeerInfo(nodeInfo.getLegalIdentity().getName(),
                                 nodeInfo.getAddress(),
                                 nodeInfo.getPhysicalLocation(),
@@ -296,22 +807,15 @@ public class ExampleApi {
     @GET
     @Path("notaries")
     @Produces(MediaType.APPLICATION_JSON)
-    public List<Party> getNotaryList() {
-        if (notaries.isEmpty()) {
-            updateNotaries();
-        }
-        return notaries;
+    public Response getNotaryList(@Context Request request) {
+        return notariesResponse.respond(request);
     }
 
     @GET
     @Path("notaries/{name}")
     @Produces(MediaType.APPLICATION_JSON)
     public Party getNotariesByName(@PathParam("name") String name) {
-        updateIssuers();
-        return notaries.stream()
-                .filter(party -> party.getName().equals(name))
-                .findFirst()
-                .orElseThrow(NotFoundException::new);
+        return found(networkMap.getNotary(name));
     }
 
     @GET
@@ -330,21 +834,38 @@ public class ExampleApi {
             throw new NotAllowedException("Not a trader");
         }
 
-        ObjectMapper json = JacksonSupport.createNonRpcMapper();
-        Set<CurrencyRate> rates = getRates();
+        return updateRates(new ArrayList<>(Collections.singletonList(new CurrencyRate(from, to, rate))));
+    }
+
+    @POST
+    @Path("rates")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Set<CurrencyRate> addRatesBatch(List<CurrencyRate> rates) {
+
+        if (!isTrader()) {
+            throw new NotAllowedException("Not a trader");
+        }
 
+        if (rates == null || rates.isEmpty() || rates.size() > MAX_RATE_BATCH) {
+            throw new BadRequestException("Expected between 1 and " + MAX_RATE_BATCH + " rates");
+        }
 
-        //replace
-        if (!rates.add(new CurrencyRate(from, to, rate))) {
-            rates.remove(new CurrencyRate(from, to, rate));
-            rates.add(new CurrencyRate(from, to, rate));
+        for (CurrencyRate rate : rates) {
+            if (rate.getFrom() == null || rate.getTo() == null || !Float.isFinite(rate.getRate())) {
+                throw new BadRequestException("Each rate needs from, to and a finite rate");
+            }
         }
 
+        return updateRates(new ArrayList<>(rates));
+    }
+
+    private Set<CurrencyRate> updateRates(ArrayList<CurrencyRate> rates) {
         try {
-            services.addVaultTransactionNote(SecureHash.sha256("rates"), json.writeValueAsString(rates));
-            return rates;
-        } catch (JsonProcessingException e) {
-            return null;
+            FlowHandle<Set<CurrencyRate>> handle = services.startFlowDynamic(RateFlow.Update.class, rates);
+            return handle.getReturnValue().get(10 * 1000, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            throw new InternalServerErrorException("Could not update rates: " + e.getMessage());
         }
     }
 
@@ -356,86 +877,87 @@ public class ExampleApi {
             throw new NotAllowedException("Not a trader");
         }
 
-        ObjectMapper json = JacksonSupport.createNonRpcMapper();
-
         try {
-            Iterable<String> ratesIterator = services.getVaultTransactionNotes(SecureHash.sha256("rates"));
-            String rat = getLastElement(ratesIterator);
-
-            System.out.println(rat);
-
-            if (rat != null && !rat.isEmpty()) {
-                return json.readValue(rat, new TypeReference<Set<CurrencyRate>>() {
-                });
-
-            }
+            FlowHandle<Set<CurrencyRate>> handle = services.startFlowDynamic(RateFlow.Query.class);
+            return handle.getReturnValue().get(10 * 1000, TimeUnit.MILLISECONDS);
         } catch (Exception e) {
             return new HashSet<>();
         }
-        return new HashSet<>();
     }
 
+    /**
+     * How many checkpoints the node holds for flows in flight and how large they are, read from its checkpoint storage.
+     */
     @GET
-    @Path("/identity")
+    @Path("metrics/checkpoints")
     @Produces(MediaType.APPLICATION_JSON)
-    public Map<String, Object> getLegalIdentity() {
-        return ImmutableMap.of(
-                "name", services.nodeIdentity().getLegalIdentity().getName(),
-                "token", services.nodeIdentity().getLegalIdentity().getOwningKey(),
-                "PhysicalLocation", services.nodeIdentity().getPhysicalLocation(),
-                "advertisedServices", services.nodeIdentity().getAdvertisedServices(),
-                "address", services.nodeIdentity().getAddress()
-        );
+    public CheckpointStats getCheckpointMetrics() {
+        try {
+            FlowHandle<CheckpointStats> handle = services.startFlowDynamic(MetricsFlow.Checkpoints.class);
+            return handle.getReturnValue().get(10 * 1000, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            throw new ServiceUnavailableException("Could not read checkpoint storage: " + e.getMessage());
+        }
     }
 
-    private void updatePeers() {
-        peers = new ArrayList<>();
+    /**
+     * Web API request metrics in the Prometheus text format.
+     */
+    @GET
+    @Path("metrics/prometheus")
+    @Produces("text/plain; version=0.0.4")
+    public String getPrometheusMetrics() {
+        StringBuilder out = new StringBuilder(apiMetrics.render());
+        admission.render(out);
+        ApiMetrics.header(out, "example_api_long_poll_waiters", "gauge", "Long-polls waiting for a flow to finish.");
+        ApiMetrics.sample(out, "example_api_long_poll_waiters", "", flowTracker.getWaiting());
+        idempotencyKeys.render(out);
+        return out.toString();
+    }
 
-        peers = services.networkMapUpdates().getFirst()
-                .stream()
-                .map(NodeInfo::getLegalIdentity)
-                .filter(name -> !name.equals(myLegalName) && !name.equals(NOTARY_NAME))
-                .collect(toList());
-    }
-
-    private void updateIssuers() {
-        issuers = new ArrayList<>();
-        for (NodeInfo nodeInfo :
-                services.networkMapUpdates().getFirst()) {
-            for (ServiceEntry serviceEntry :
-                    nodeInfo.getAdvertisedServices()) {
-                if (serviceEntry.getInfo().getType().getId().contains("corda.issuer.")) {
-                    issuers.add(nodeInfo.getLegalIdentity());
-                }
-            }
+    /**
+     * Latency per stage of the exchange flows on this node: counts, failures, mean, p50, p99 and max in milliseconds.
+     */
+    @GET
+    @Path("metrics/stages")
+    @Produces(MediaType.APPLICATION_JSON)
+    public List<StageLatency> getStageMetrics() {
+        try {
+            FlowHandle<List<StageLatency>> handle = services.startFlowDynamic(MetricsFlow.Stages.class);
+            return handle.getReturnValue().get(10 * 1000, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            return new ArrayList<>();
         }
     }
 
-    private void updateNotaries() {
-        notaries = new ArrayList<>();
+    @GET
+    @Path("/identity")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getLegalIdentity(@Context Request request) {
+        return identityResponse.respond(request);
+    }
 
-        for (NodeInfo nodeInfo :
-                services.networkMapUpdates().getFirst()) {
-            for (ServiceEntry serviceEntry :
-                    nodeInfo.getAdvertisedServices()) {
-                if (serviceEntry.getInfo().getType().isNotary()) {
-                    notaries.add(nodeInfo.getNotaryIdentity());
-                }
-            }
-        }
+    private Map<String, Object> legalIdentity() {
+        NodeInfo me = services.nodeIdentity();
+
+        return ImmutableMap.of(
+                "name", me.getLegalIdentity().getName(),
+                "token", me.getLegalIdentity().getOwningKey(),
+                "PhysicalLocation", me.getPhysicalLocation(),
+                "advertisedServices", me.getAdvertisedServices(),
+                "address", me.getAddress()
+        );
     }
 
     private boolean isTrader() {
-        return isTrader(services.nodeIdentity());
+        return NetworkMapView.isTrader(services.nodeIdentity());
     }
 
-    private boolean isTrader(NodeInfo nodeInfo) {
-        for (ServiceEntry serviceEntry : nodeInfo.getAdvertisedServices()) {
-            if (serviceEntry.getInfo().component1().getId().equals("tn.fxtrader")) {
-                return true;
-            }
+    private static <T> T found(T value) {
+        if (value == null) {
+            throw new NotFoundException();
         }
 
-        return false;
+        return value;
     }
 }
\ No newline at end of file
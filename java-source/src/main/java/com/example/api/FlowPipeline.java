@@ -0,0 +1,85 @@
+package com.example.api;
+
+import com.example.models.BatchEntryResult;
+import com.example.models.FlowStatus;
+import net.corda.core.messaging.FlowHandle;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+/**
+ * Starts a batch of flows with at most {@code window} of them in flight at once.
+ * <p>
+ * A new flow is started as soon as an earlier one finishes, so throughput is bounded by how fast the node completes
+ * flows rather than by the round trip of each start. Every flow is also registered with the {@link FlowTracker}, so
+ * entries still running when the batch times out can be followed up under {@code flows/{id}}.
+ */
+public class FlowPipeline {
+
+    private final FlowTracker tracker;
+
+    public FlowPipeline(FlowTracker tracker) {
+        this.tracker = tracker;
+    }
+
+    /**
+     * Starts {@code size} flows, the i-th through {@code starter.apply(i)}, and waits up to {@code timeoutMillis} for
+     * all of them. A starter may throw to reject its entry without starting a flow.
+     */
+    public List<BatchEntryResult> run(String operation, int size, int window, long timeoutMillis, IntFunction<FlowHandle<?>> starter) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        Semaphore inFlight = new Semaphore(window);
+        CountDownLatch done = new CountDownLatch(size);
+        FlowStatus[] statuses = new FlowStatus[size];
+        String[] rejections = new String[size];
+        Runnable[] forgets = new Runnable[size];
+
+        try {
+            for (int i = 0; i < size; i++) {
+                if (!inFlight.tryAcquire(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+                    for (int j = i; j < size; j++) {
+                        rejections[j] = "Timed out before the flow was started";
+                    }
+                    break;
+                }
+
+                try {
+                    FlowHandle<?> handle = starter.apply(i);
+                    statuses[i] = tracker.track(operation, handle.getId(), handle.getReturnValue(), null);
+                    forgets[i] = tracker.whenDone(statuses[i], status -> {
+                        inFlight.release();
+                        done.countDown();
+                    });
+                } catch (RuntimeException e) {
+                    rejections[i] = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+                    inFlight.release();
+                    done.countDown();
+                }
+            }
+
+            done.await(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // Flows still running when the batch gives up must not keep our callbacks registered.
+            for (Runnable forget : forgets) {
+                if (forget != null) {
+                    forget.run();
+                }
+            }
+        }
+
+        List<BatchEntryResult> results = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            results.add(statuses[i] != null
+                    ? BatchEntryResult.of(i, statuses[i])
+                    : BatchEntryResult.rejected(i, rejections[i]));
+        }
+
+        return results;
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.api;
+
+import com.example.models.FlowStatus;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import net.corda.core.flows.StateMachineRunId;
+import rx.Observable;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the status of flows started through the web API so that callers can poll for them instead of holding a
+ * request thread open while the flow runs.
+ * <p>
+ * Completion is driven by callbacks on the flow's result future, so no thread is parked per flow in flight. Finished
+ * flows are kept for an hour, up to a fixed number of entries.
+ */
+public class FlowTracker {
+
+    private static final int MAX_TRACKED = 100_000;
+
+    private final Cache<String, FlowStatus> flows = CacheBuilder.newBuilder()
+            .maximumSize(MAX_TRACKED)
+            .expireAfterWrite(1, TimeUnit.HOURS)
+            .build();
+
+    private final Map<String, List<Consumer<FlowStatus>>> waiters = new ConcurrentHashMap<>();
+
+    /**
+     * Starts tracking a flow. A flow that is already tracked, because a retried request attached to it, keeps its
+     * existing status.
+     */
+    public FlowStatus track(String operation, StateMachineRunId id, ListenableFuture<?> result, Observable<String> progress) {
+        FlowStatus status = new FlowStatus(id.getUuid().toString(), operation);
+        FlowStatus existing = flows.asMap().putIfAbsent(status.getId(), status);
+
+        if (existing != null) {
+            return existing;
+        }
+
+        if (progress != null) {
+            progress.subscribe(status::setProgress, error -> {
+            });
+        }
+
+        Futures.addCallback(result, new FutureCallback<Object>() {
+            @Override
+            public void onSuccess(Object value) {
+                status.complete(value);
+                notifyWaiters(status);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                status.fail(t);
+                notifyWaiters(status);
+            }
+        });
+
+        return status;
+    }
+
+    public FlowStatus get(String id) {
+        return flows.getIfPresent(id);
+    }
+
+    /**
+     * Calls {@code callback} once the flow is done, straight away if it already is. Returns a handle that forgets the
+     * callback; waiters that give up must call it, or flows that never finish would hold their callbacks forever.
+     */
+    public Runnable whenDone(FlowStatus status, Consumer<FlowStatus> callback) {
+        waiters.compute(status.getId(), (id, callbacks) -> {
+            List<Consumer<FlowStatus>> list = callbacks == null ? new CopyOnWriteArrayList<>() : callbacks;
+            list.add(callback);
+            return list;
+        });
+
+        // The flow may have finished before we registered; make sure nobody is left waiting.
+        if (status.isDone()) {
+            notifyWaiters(status);
+        }
+
+        return () -> waiters.computeIfPresent(status.getId(), (id, callbacks) -> {
+            callbacks.remove(callback);
+            return callbacks.isEmpty() ? null : callbacks;
+        });
+    }
+
+    /**
+     * Callbacks still waiting, across all flows.
+     */
+    public int getWaiting() {
+        int waiting = 0;
+        for (List<Consumer<FlowStatus>> callbacks : waiters.values()) {
+            waiting += callbacks.size();
+        }
+        return waiting;
+    }
+
+    private void notifyWaiters(FlowStatus status) {
+        List<Consumer<FlowStatus>> callbacks = waiters.remove(status.getId());
+
+        if (callbacks != null) {
+            callbacks.forEach(callback -> callback.accept(status));
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.api;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Remembers what each client-supplied {@code Idempotency-Key} started, so that a retried request attaches to the
+ * original flow, or batch of flows, instead of starting another one.
+ * <p>
+ * Keys are scoped to the caller, so two clients picking the same key do not see each other's flows. The first request
+ * with a key starts the flow; requests with the same key arriving while it starts wait for it, and later ones get the
+ * same handle back, whether the flow is still running, has finished or has failed. A key reused for a different
+ * request, which includes a different body, is refused with 422. Requests turned away before anything started, by
+ * admission control for instance, leave no entry behind and can be retried with the same key.
+ * <p>
+ * Keys are held in memory on the web server, so they do not survive a restart. Configured with system properties:
+ * <ul>
+ * <li>{@code fx.idempotency.maxKeys}: keys remembered, 100000 by default.</li>
+ * <li>{@code fx.idempotency.ttlMinutes}: how long a key is remembered after its flow started, 60 by default.</li>
+ * </ul>
+ */
+public class IdempotencyKeys {
+
+    public static final String HEADER = "Idempotency-Key";
+
+    private static final int MAX_KEY_LENGTH = 255;
+
+    private final Cache<String, Entry> entries = CacheBuilder.newBuilder()
+            .maximumSize(Long.getLong("fx.idempotency.maxKeys", 100_000L))
+            .expireAfterWrite(Long.getLong("fx.idempotency.ttlMinutes", 60L), TimeUnit.MINUTES)
+            .build();
+
+    private final LongAdder started = new LongAdder();
+    private final LongAdder replayed = new LongAdder();
+    private final LongAdder conflicts = new LongAdder();
+
+    /**
+     * Returns what {@code caller} started under {@code key}, calling {@code start} if there is nothing yet.
+     *
+     * @param request identifies the request the key was sent with, body included; a later request with the same key
+     *                must match it.
+     * @throws WebApplicationException with 400 for a malformed key, or 422 if the key was used for another request.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T startOnce(String caller, String key, String request, Supplier<T> start) {
+        if (key.trim().isEmpty() || key.length() > MAX_KEY_LENGTH) {
+            throw new BadRequestException(HEADER + " must be between 1 and " + MAX_KEY_LENGTH + " characters");
+        }
+
+        Entry[] fresh = new Entry[1];
+        Entry entry;
+        try {
+            entry = entries.get(caller + "\n" + key, () -> fresh[0] = new Entry(request, start.get()));
+        } catch (ExecutionException | UncheckedExecutionException | ExecutionError e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+
+        if (!entry.request.equals(request)) {
+            conflicts.increment();
+            throw new WebApplicationException(Response.status(422)
+                    .type(MediaType.TEXT_PLAIN_TYPE)
+                    .entity(HEADER + " was already used for " + entry.request)
+                    .build());
+        }
+
+        if (entry == fresh[0]) {
+            started.increment();
+        } else {
+            replayed.increment();
+        }
+
+        return (T) entry.started;
+    }
+
+    /**
+     * Appends keyed requests by outcome in the Prometheus text format.
+     */
+    public void render(StringBuilder out) {
+        ApiMetrics.header(out, "example_api_idempotency_requests_total", "counter", "Requests carrying an " + HEADER + ", per outcome.");
+        ApiMetrics.sample(out, "example_api_idempotency_requests_total", "outcome=\"started\"", started.sum());
+        ApiMetrics.sample(out, "example_api_idempotency_requests_total", "outcome=\"replayed\"", replayed.sum());
+        ApiMetrics.sample(out, "example_api_idempotency_requests_total", "outcome=\"conflict\"", conflicts.sum());
+
+        ApiMetrics.header(out, "example_api_idempotency_keys", "gauge", "Idempotency keys remembered.");
+        ApiMetrics.sample(out, "example_api_idempotency_keys", "", entries.size());
+    }
+
+    private static final class Entry {
+        private final String request;
+        private final Object started;
+
+        private Entry(String request, Object started) {
+            this.request = request;
+            this.started = started;
+        }
+    }
+}
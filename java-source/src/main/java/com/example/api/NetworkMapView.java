@@ -0,0 +1,193 @@
+package com.example.api;
+
+import kotlin.Pair;
+import net.corda.core.crypto.Party;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.node.NodeInfo;
+import net.corda.core.node.ServiceEntry;
+import net.corda.core.node.services.NetworkMapCache;
+import rx.Observable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Web server side copy of the network map.
+ * <p>
+ * Subscribes to the node's network map updates once and keeps name-keyed maps of peers, issuers, notaries and traders
+ * that are updated one node at a time, so directory lookups are served without an RPC round trip.
+ */
+public class NetworkMapView {
+
+    public static final String ISSUER_SERVICE_PREFIX = "corda.issuer.";
+    public static final String TRADER_SERVICE = "tn.fxtrader";
+
+    private final String myLegalName;
+    private final String notaryName;
+
+    private final Map<String, NodeInfo> nodes = new ConcurrentSkipListMap<>();
+    private final Map<String, Party> peers = new ConcurrentSkipListMap<>();
+    private final Map<String, Party> issuers = new ConcurrentSkipListMap<>();
+    private final Map<String, Party> notaries = new ConcurrentSkipListMap<>();
+    private final Map<String, Party> traders = new ConcurrentSkipListMap<>();
+
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+    public NetworkMapView(CordaRPCOps services, String myLegalName, String notaryName) {
+        this.myLegalName = myLegalName;
+        this.notaryName = notaryName;
+
+        Pair<List<NodeInfo>, Observable<NetworkMapCache.MapChange>> networkMap = services.networkMapUpdates();
+
+        networkMap.getFirst().forEach(this::put);
+        networkMap.getSecond().subscribe(this::apply);
+    }
+
+    /**
+     * Registers a callback that runs after every network map change has been applied.
+     */
+    public void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    public List<NodeInfo> getNodes() {
+        return new ArrayList<>(nodes.values());
+    }
+
+    public List<Party> getPeers() {
+        return new ArrayList<>(peers.values());
+    }
+
+    public List<Party> getIssuers() {
+        return new ArrayList<>(issuers.values());
+    }
+
+    public List<Party> getNotaries() {
+        return new ArrayList<>(notaries.values());
+    }
+
+    public List<Party> getTraders() {
+        return new ArrayList<>(traders.values());
+    }
+
+    /**
+     * Returns the legal identity of any node on the network map, including this one.
+     */
+    public Party getParty(String name) {
+        NodeInfo nodeInfo = nodes.get(name);
+        return nodeInfo == null ? null : nodeInfo.getLegalIdentity();
+    }
+
+    public Party getPeer(String name) {
+        return peers.get(name);
+    }
+
+    public Party getIssuer(String name) {
+        return issuers.get(name);
+    }
+
+    public Party getNotary(String name) {
+        return notaries.get(name);
+    }
+
+    public Party getTrader(String name) {
+        return traders.get(name);
+    }
+
+    public Party getFirstIssuer() {
+        return first(issuers);
+    }
+
+    public Party getFirstNotary() {
+        return first(notaries);
+    }
+
+    public static boolean isTrader(NodeInfo nodeInfo) {
+        return hasService(nodeInfo, TRADER_SERVICE);
+    }
+
+    public static boolean isIssuer(NodeInfo nodeInfo) {
+        for (ServiceEntry serviceEntry : nodeInfo.getAdvertisedServices()) {
+            if (serviceEntry.getInfo().getType().getId().startsWith(ISSUER_SERVICE_PREFIX)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    public static boolean hasService(NodeInfo nodeInfo, String serviceId) {
+        for (ServiceEntry serviceEntry : nodeInfo.getAdvertisedServices()) {
+            if (serviceEntry.getInfo().getType().getId().equals(serviceId)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void apply(NetworkMapCache.MapChange change) {
+        if (change.getPrevNodeInfo() != null) {
+            remove(change.getPrevNodeInfo());
+        }
+
+        if (change.getType() == NetworkMapCache.MapChangeType.Removed) {
+            remove(change.getNode());
+        } else {
+            put(change.getNode());
+        }
+
+        listeners.forEach(Runnable::run);
+    }
+
+    private void put(NodeInfo nodeInfo) {
+        String name = nodeInfo.getLegalIdentity().getName();
+
+        remove(nodeInfo);
+        nodes.put(name, nodeInfo);
+
+        if (!name.equals(myLegalName) && !name.equals(notaryName)) {
+            peers.put(name, nodeInfo.getLegalIdentity());
+        }
+
+        if (isIssuer(nodeInfo)) {
+            issuers.put(name, nodeInfo.getLegalIdentity());
+        }
+
+        if (!name.equals(notaryName) && isTrader(nodeInfo)) {
+            traders.put(name, nodeInfo.getLegalIdentity());
+        }
+
+        for (ServiceEntry serviceEntry : nodeInfo.getAdvertisedServices()) {
+            if (serviceEntry.getInfo().getType().isNotary()) {
+                notaries.put(serviceEntry.getIdentity().getName(), serviceEntry.getIdentity());
+            }
+        }
+    }
+
+    private void remove(NodeInfo nodeInfo) {
+        String name = nodeInfo.getLegalIdentity().getName();
+
+        nodes.remove(name);
+        peers.remove(name);
+        issuers.remove(name);
+        traders.remove(name);
+
+        for (ServiceEntry serviceEntry : nodeInfo.getAdvertisedServices()) {
+            if (serviceEntry.getInfo().getType().isNotary()) {
+                notaries.remove(serviceEntry.getIdentity().getName());
+            }
+        }
+    }
+
+    private static Party first(Map<String, Party> parties) {
+        for (Party party : parties.values()) {
+            return party;
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.api;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.hash.Hashing;
+
+import javax.ws.rs.InternalServerErrorException;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * A JSON response body that is rendered once and served as bytes with a strong ETag until it is invalidated.
+ */
+public class RenderedResponse {
+
+    private final ObjectMapper mapper;
+    private final Supplier<?> source;
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicReference<Rendered> rendered = new AtomicReference<>();
+
+    public RenderedResponse(ObjectMapper mapper, Supplier<?> source) {
+        this.mapper = mapper;
+        this.source = source;
+    }
+
+    public void invalidate() {
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Answers with 304 if the request's conditional headers match the current ETag, otherwise with the rendered body.
+     */
+    public Response respond(Request request) {
+        Rendered current = get();
+        Response.ResponseBuilder notModified = request.evaluatePreconditions(current.tag);
+
+        if (notModified != null) {
+            return notModified.build();
+        }
+
+        return Response.ok(current.body, MediaType.APPLICATION_JSON_TYPE).tag(current.tag).build();
+    }
+
+    private Rendered get() {
+        long wanted = generation.get();
+        Rendered current = rendered.get();
+
+        // A copy rendered before the latest invalidation is never served, even if it was published afterwards.
+        if (current == null || current.generation != wanted) {
+            current = render(wanted);
+            rendered.set(current);
+        }
+
+        return current;
+    }
+
+    private Rendered render(long generation) {
+        try {
+            byte[] body = mapper.writeValueAsBytes(source.get());
+            return new Rendered(generation, body, new EntityTag(Hashing.sha256().hashBytes(body).toString()));
+        } catch (JsonProcessingException e) {
+            throw new InternalServerErrorException(e);
+        }
+    }
+
+    private static class Rendered {
+        private final long generation;
+        private final byte[] body;
+        private final EntityTag tag;
+
+        private Rendered(long generation, byte[] body, EntityTag tag) {
+            this.generation = generation;
+            this.body = body;
+            this.tag = tag;
+        }
+    }
+}
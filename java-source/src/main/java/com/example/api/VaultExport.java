@@ -0,0 +1,92 @@
+package com.example.api;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes a sequence of objects as newline-delimited JSON, one object per line, straight to the response stream.
+ * Nothing is buffered beyond the Jackson generator, so memory use does not depend on how many objects are written.
+ */
+public class VaultExport implements StreamingOutput {
+
+    private static final int FLUSH_EVERY = 256;
+
+    private final ObjectWriter writer;
+    private final Iterable<?> items;
+    private final boolean gzip;
+
+    public VaultExport(ObjectMapper mapper, Iterable<?> items, boolean gzip) {
+        this.writer = mapper.writer()
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+                .without(SerializationFeature.CLOSE_CLOSEABLE);
+        this.items = items;
+        this.gzip = gzip;
+    }
+
+    /**
+     * Whether an {@code Accept-Encoding} header allows gzip: named as {@code gzip} or {@code x-gzip}, or covered by
+     * {@code *}, with a non-zero q-value.
+     */
+    public static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+
+        Float gzip = null;
+        Float wildcard = null;
+
+        for (String part : acceptEncoding.split(",")) {
+            String[] params = part.split(";");
+            String coding = params[0].trim().toLowerCase();
+            float q = 1;
+
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=") || param.startsWith("Q=")) {
+                    try {
+                        q = Float.parseFloat(param.substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+
+            if (coding.equals("gzip") || coding.equals("x-gzip")) {
+                gzip = gzip == null ? q : Math.max(gzip, q);
+            } else if (coding.equals("*")) {
+                wildcard = q;
+            }
+        }
+
+        if (gzip != null) {
+            return gzip > 0;
+        }
+        return wildcard != null && wildcard > 0;
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException {
+        OutputStream out = gzip ? new GZIPOutputStream(output, 8192) : output;
+
+        try (JsonGenerator generator = writer.getFactory().createGenerator(out)) {
+            generator.setRootValueSeparator(null);
+            int written = 0;
+
+            for (Object item : items) {
+                writer.writeValue(generator, item);
+                generator.writeRaw('\n');
+
+                if (++written % FLUSH_EVERY == 0) {
+                    generator.flush();
+                }
+            }
+        }
+    }
+}
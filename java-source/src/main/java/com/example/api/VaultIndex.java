@@ -0,0 +1,148 @@
+package com.example.api;
+
+import kotlin.Pair;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.node.services.Vault;
+import rx.Observable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory index of the node's unconsumed states, keyed by the hash of the transaction that produced them.
+ * <p>
+ * The index is filled once from the vault snapshot and then kept up to date from the vault updates observable,
+ * so lookups never go back to the node over RPC.
+ * <p>
+ * Every state is also given a sequence number in the order it reached the index. Pages are read in that order, which
+ * stays stable as states are produced and consumed, so a sequence number can be handed out as a paging cursor.
+ */
+public class VaultIndex {
+
+    private final Map<SecureHash, ConcurrentSkipListMap<Integer, StateAndRef<ContractState>>> byTxHash = new ConcurrentHashMap<>();
+
+    private final ConcurrentSkipListMap<Long, StateAndRef<ContractState>> bySequence = new ConcurrentSkipListMap<>();
+    private final Map<StateRef, Long> sequenceOf = new ConcurrentHashMap<>();
+    private final AtomicLong nextSequence = new AtomicLong();
+
+    public VaultIndex(CordaRPCOps services) {
+        this(services.vaultAndUpdates());
+    }
+
+    VaultIndex(Pair<List<StateAndRef<ContractState>>, Observable<Vault.Update>> vault) {
+        vault.getFirst().forEach(this::add);
+        vault.getSecond().subscribe(this::apply);
+    }
+
+    /**
+     * Returns the first unconsumed output of the given transaction, or null if there is none.
+     */
+    public StateAndRef<ContractState> getByTxHash(SecureHash txHash) {
+        ConcurrentSkipListMap<Integer, StateAndRef<ContractState>> outputs = byTxHash.get(txHash);
+
+        if (outputs == null) {
+            return null;
+        }
+
+        Map.Entry<Integer, StateAndRef<ContractState>> first = outputs.firstEntry();
+        return first == null ? null : first.getValue();
+    }
+
+    /**
+     * Live view of the indexed states in sequence order. Iterating it does not copy the index.
+     */
+    public Iterable<StateAndRef<ContractState>> states() {
+        return bySequence.values();
+    }
+
+    /**
+     * Returns up to {@code limit} states whose sequence number is strictly greater than {@code after}.
+     */
+    public Page getPageAfter(long after, int limit) {
+        List<StateAndRef<ContractState>> states = new ArrayList<>(limit);
+        long last = after;
+
+        for (Map.Entry<Long, StateAndRef<ContractState>> entry : bySequence.tailMap(after, false).entrySet()) {
+            if (states.size() == limit) {
+                return new Page(states, last);
+            }
+            states.add(entry.getValue());
+            last = entry.getKey();
+        }
+
+        return new Page(states, null);
+    }
+
+    /**
+     * Returns the given 1-based page of {@code limit} states.
+     */
+    public Page getPage(int page, int limit) {
+        long toSkip = (long) (page - 1) * limit;
+        long after = -1;
+
+        for (Long sequence : bySequence.keySet()) {
+            if (toSkip-- == 0) {
+                break;
+            }
+            after = sequence;
+        }
+
+        return toSkip > 0 ? new Page(new ArrayList<>(), null) : getPageAfter(after, limit);
+    }
+
+    private void apply(Vault.Update update) {
+        update.getConsumed().forEach(this::remove);
+        update.getProduced().forEach(this::add);
+    }
+
+    private void add(StateAndRef<ContractState> stateAndRef) {
+        byTxHash.computeIfAbsent(stateAndRef.getRef().getTxhash(), hash -> new ConcurrentSkipListMap<>())
+                .put(stateAndRef.getRef().getIndex(), stateAndRef);
+
+        long sequence = nextSequence.getAndIncrement();
+        if (sequenceOf.putIfAbsent(stateAndRef.getRef(), sequence) == null) {
+            bySequence.put(sequence, stateAndRef);
+        }
+    }
+
+    private void remove(StateAndRef<ContractState> stateAndRef) {
+        byTxHash.computeIfPresent(stateAndRef.getRef().getTxhash(), (hash, outputs) -> {
+            outputs.remove(stateAndRef.getRef().getIndex());
+            return outputs.isEmpty() ? null : outputs;
+        });
+
+        Long sequence = sequenceOf.remove(stateAndRef.getRef());
+        if (sequence != null) {
+            bySequence.remove(sequence);
+        }
+    }
+
+    public static class Page {
+        private final List<StateAndRef<ContractState>> states;
+        private final Long lastSequence;
+
+        Page(List<StateAndRef<ContractState>> states, Long lastSequence) {
+            this.states = states;
+            this.lastSequence = lastSequence;
+        }
+
+        public List<StateAndRef<ContractState>> getStates() {
+            return states;
+        }
+
+        /**
+         * The sequence number to continue from, or null if this is the last page.
+         */
+        public Long getLastSequence() {
+            return lastSequence;
+        }
+    }
+}
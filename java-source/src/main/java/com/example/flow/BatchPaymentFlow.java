@@ -0,0 +1,207 @@
+package com.example.flow;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.example.service.CashPool;
+import com.example.service.NodeServices;
+import net.corda.contracts.asset.Cash;
+import net.corda.core.contracts.Issued;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.crypto.DigitalSignature;
+import net.corda.core.crypto.Party;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.serialization.CordaSerializable;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.flows.FinalityFlow;
+import net.corda.flows.NotaryFlow;
+
+import java.util.*;
+
+/**
+ * Pays many recipients the same issued currency in as few transactions as possible.
+ * <p>
+ * Payments are split into chunks of {@code chunkSize}, and each chunk becomes a single transaction with one output
+ * per recipient, so a fan-out payment costs one notarisation and one coin selection per chunk rather than per
+ * recipient. Cash is picked through the node's {@link CashPool}, so concurrent payments spend different states.
+ * <p>
+ * Chunks settle independently: a chunk the notary does not commit gives back its cash and the flow carries on with the
+ * next one, since the chunks before it are already on the ledger. Once the notary has committed a chunk it counts as
+ * paid, even if recording or sending it fails afterwards. Returns one {@link ChunkResult} per chunk, in chunk order.
+ */
+public class BatchPaymentFlow extends FlowLogic<List<BatchPaymentFlow.ChunkResult>> {
+
+    private final Issued<Currency> token;
+    private final List<Payment> payments;
+    private final int chunkSize;
+
+    public BatchPaymentFlow(Issued<Currency> token, List<Payment> payments, Integer chunkSize) {
+        this.token = token;
+        this.payments = payments;
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    @Suspendable
+    public List<ChunkResult> call() throws FlowException {
+        if (chunkSize < 1) {
+            throw new FlowException("Chunk size must be positive");
+        }
+        for (Payment payment : payments) {
+            if (payment.quantity <= 0) {
+                throw new FlowException("Payment amounts must be positive");
+            }
+        }
+
+        List<ChunkResult> results = new ArrayList<>();
+
+        for (int from = 0; from < payments.size(); from += chunkSize) {
+            int to = Math.min(from + chunkSize, payments.size());
+            List<Payment> chunk = new ArrayList<>(payments.subList(from, to));
+
+            SignedTransaction tx;
+            try {
+                tx = notarise(buildChunk(chunk));
+            } catch (FlowException | RuntimeException e) {
+                results.add(new ChunkResult(from, to, null, reason(e), null));
+                continue;
+            }
+
+            // The notary has committed the chunk, so it is paid whatever happens to finality.
+            results.add(new ChunkResult(from, to, tx.getId(), null, finalise(tx, chunk)));
+        }
+
+        return results;
+    }
+
+    /**
+     * Gets the notary's signature on a chunk, giving back its cash if the notary does not commit it.
+     */
+    @Suspendable
+    private SignedTransaction notarise(SignedTransaction tx) throws FlowException {
+        try {
+            List<DigitalSignature.WithKey> signatures = subFlow(new NotaryFlow.Client(tx));
+            return tx.withAdditionalSignatures(signatures);
+        } catch (FlowException | RuntimeException e) {
+            NodeServices.get(getServiceHub(), CashPool.class).release(tx.getTx().getInputs());
+            throw e;
+        }
+    }
+
+    /**
+     * Records a notarised chunk and sends it to its recipients. {@code FinalityFlow} sees the notary's signature and
+     * does not notarise again. Returns null, or why the chunk may not have reached every recipient.
+     */
+    @Suspendable
+    private String finalise(SignedTransaction tx, List<Payment> chunk) {
+        Set<Party> recipients = new HashSet<>();
+
+        for (Payment payment : chunk) {
+            recipients.add(payment.recipient);
+        }
+
+        try {
+            subFlow(new FinalityFlow(tx, recipients));
+            return null;
+        } catch (FlowException | RuntimeException e) {
+            return "committed, but finality failed: " + reason(e);
+        }
+    }
+
+    private static String reason(Exception e) {
+        return e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+    }
+
+    private SignedTransaction buildChunk(List<Payment> chunk) throws FlowException {
+        List<CashSpends.Output> outputs = new ArrayList<>(chunk.size());
+        long total = 0;
+
+        for (Payment payment : chunk) {
+            outputs.add(new CashSpends.Output(payment.recipient.getOwningKey(), payment.quantity));
+            total += payment.quantity;
+        }
+
+        List<StateAndRef<Cash.State>> inputs = CashSpends.gather(getServiceHub(), token, total);
+
+        try {
+            return CashSpends.spend(getServiceHub(), token, inputs, outputs).toSignedTransaction(true);
+        } catch (RuntimeException e) {
+            CashSpends.release(getServiceHub(), inputs);
+            throw e;
+        }
+    }
+
+    @CordaSerializable
+    public static class Payment {
+        private final Party recipient;
+        private final long quantity;
+
+        public Payment(Party recipient, long quantity) {
+            this.recipient = recipient;
+            this.quantity = quantity;
+        }
+
+        public Party getRecipient() {
+            return recipient;
+        }
+
+        public long getQuantity() {
+            return quantity;
+        }
+    }
+
+    /**
+     * Outcome of the payments from index {@code from} up to, not including, {@code to}: the id of the transaction that
+     * paid them, or why the chunk failed. A paid chunk may carry a warning when the notary committed it but it could not
+     * be recorded or sent to every recipient; it must not be paid again.
+     */
+    @CordaSerializable
+    public static class ChunkResult {
+        private final int from;
+        private final int to;
+        private final SecureHash txId;
+        private final String error;
+        private final String warning;
+
+        public ChunkResult(int from, int to, SecureHash txId, String error, String warning) {
+            this.from = from;
+            this.to = to;
+            this.txId = txId;
+            this.error = error;
+            this.warning = warning;
+        }
+
+        public int getFrom() {
+            return from;
+        }
+
+        public int getTo() {
+            return to;
+        }
+
+        /**
+         * The id of the transaction that paid the chunk, or null if it failed.
+         */
+        public SecureHash getTxId() {
+            return txId;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        public String getWarning() {
+            return warning;
+        }
+
+        public boolean isPaid() {
+            return txId != null;
+        }
+
+        @Override
+        public String toString() {
+            String outcome = isPaid() ? txId.toString() + (warning == null ? "" : " (" + warning + ")") : "failed: " + error;
+            return "payments " + from + "-" + (to - 1) + ": " + outcome;
+        }
+    }
+}
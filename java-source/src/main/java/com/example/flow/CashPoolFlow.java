@@ -0,0 +1,117 @@
+package com.example.flow;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.example.service.CashPool;
+import com.example.service.NodeServices;
+import net.corda.contracts.asset.Cash;
+import net.corda.core.contracts.Issued;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.crypto.CompositeKey;
+import net.corda.core.crypto.Party;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.flows.FinalityFlow;
+
+import java.util.*;
+
+/**
+ * Background flows of the {@link CashPool}.
+ */
+public class CashPoolFlow {
+
+    /**
+     * Splits every state of this node's cash that is worth two or more shares of its currency's balance, where a
+     * share is the balance divided by {@link CashPool#getSplits()}. Each currency is split in its own transaction.
+     * Returns the number of states created.
+     */
+    public static class Rebalance extends FlowLogic<Integer> {
+
+        @Override
+        @Suspendable
+        public Integer call() throws FlowException {
+            int splits = NodeServices.get(getServiceHub(), CashPool.class).getSplits();
+            if (splits < 2) {
+                return 0;
+            }
+
+            int created = 0;
+            for (Issued<Currency> token : CashSpends.ownedTokens(getServiceHub())) {
+                created += split(token, splits);
+            }
+
+            return created;
+        }
+
+        @Suspendable
+        private int split(Issued<Currency> token, int splits) throws FlowException {
+            List<StateRef> claimed = new ArrayList<>();
+            SignedTransaction tx = buildSplit(token, splits, claimed);
+
+            if (tx == null) {
+                return 0;
+            }
+
+            try {
+                subFlow(new FinalityFlow(tx, Collections.emptySet()));
+            } catch (FlowException | RuntimeException e) {
+                NodeServices.get(getServiceHub(), CashPool.class).release(claimed);
+                throw e;
+            }
+
+            return tx.getTx().getOutputs().size();
+        }
+
+        /**
+         * Claims the states worth at least two shares, all under the notary of the first one found, and builds the
+         * transaction splitting them into shares. Returns null if there is nothing to split.
+         */
+        private SignedTransaction buildSplit(Issued<Currency> token, int splits, List<StateRef> claimed) {
+            CashPool pool = NodeServices.get(getServiceHub(), CashPool.class);
+            List<StateAndRef<Cash.State>> owned = CashSpends.owned(getServiceHub(), token);
+
+            long balance = 0;
+            for (StateAndRef<Cash.State> state : owned) {
+                balance += state.getState().getData().getAmount().getQuantity();
+            }
+
+            long share = balance / splits;
+            if (share < 1) {
+                return null;
+            }
+
+            List<StateAndRef<Cash.State>> large = new ArrayList<>();
+            long total = 0;
+            Party notary = null;
+
+            for (StateAndRef<Cash.State> state : owned) {
+                long quantity = state.getState().getData().getAmount().getQuantity();
+
+                if (quantity < 2 * share || (notary != null && !notary.equals(state.getState().getNotary()))) {
+                    continue;
+                }
+                if (pool.claim(state.getRef())) {
+                    notary = state.getState().getNotary();
+                    large.add(state);
+                    claimed.add(state.getRef());
+                    total += quantity;
+                }
+            }
+
+            if (large.isEmpty()) {
+                return null;
+            }
+
+            CompositeKey me = getServiceHub().getMyInfo().getLegalIdentity().getOwningKey();
+            int pieces = (int) Math.min(splits, total / share);
+            List<CashSpends.Output> outputs = new ArrayList<>(pieces);
+
+            for (int i = 0; i < pieces; i++) {
+                outputs.add(new CashSpends.Output(me, total / pieces + (i < total % pieces ? 1 : 0)));
+            }
+
+            return CashSpends.spend(getServiceHub(), token, large, outputs).toSignedTransaction(true);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.example.flow;
+
+import com.example.service.CashPool;
+import com.example.service.NodeServices;
+import net.corda.contracts.asset.Cash;
+import net.corda.core.contracts.*;
+import net.corda.core.crypto.CompositeKey;
+import net.corda.core.crypto.Party;
+import net.corda.core.flows.FlowException;
+import net.corda.core.node.ServiceHub;
+import net.corda.core.transactions.TransactionBuilder;
+
+import java.util.*;
+
+/**
+ * Coin selection and transaction building for flows that move cash in shapes {@code CashPaymentFlow} cannot, such as
+ * one transaction with many outputs.
+ * <p>
+ * Only cash of a single issued token is spent at a time, so one move command balances the whole transaction.
+ * <p>
+ * Selected states are claimed in the node's {@link CashPool}, so concurrent flows never pick the same state. Callers
+ * that give up on a spend should {@link #release} what they gathered.
+ */
+public final class CashSpends {
+
+    private CashSpends() {
+    }
+
+    /**
+     * Picks and claims unconsumed cash of {@code token} owned by this node and not claimed by another flow, all under
+     * the same notary, until at least {@code quantity} is covered.
+     *
+     * @throws FlowException if the vault does not hold enough.
+     */
+    public static List<StateAndRef<Cash.State>> gather(ServiceHub services, Issued<Currency> token, long quantity) throws FlowException {
+        return gather(services, token, quantity, null);
+    }
+
+    /**
+     * As {@link #gather(ServiceHub, Issued, long)}, but only picks cash under {@code notary} when it is not null.
+     */
+    public static List<StateAndRef<Cash.State>> gather(ServiceHub services, Issued<Currency> token, long quantity, Party notary) throws FlowException {
+        CashPool pool = NodeServices.get(services, CashPool.class);
+        List<StateAndRef<Cash.State>> gathered = new ArrayList<>();
+        long total = 0;
+
+        for (StateAndRef<Cash.State> stateAndRef : owned(services, token)) {
+            if (total >= quantity) {
+                break;
+            }
+            if (notary != null && !notary.equals(stateAndRef.getState().getNotary())) {
+                continue;
+            }
+            if (!pool.claim(stateAndRef.getRef())) {
+                continue;
+            }
+
+            notary = stateAndRef.getState().getNotary();
+            gathered.add(stateAndRef);
+            total += stateAndRef.getState().getData().getAmount().getQuantity();
+        }
+
+        if (total < quantity) {
+            release(services, gathered);
+            throw new FlowException("Insufficient cash for spend: missing " + new Amount<>(quantity - total, token));
+        }
+
+        return gathered;
+    }
+
+    /**
+     * Gives back the claims on gathered cash that will not be spent.
+     */
+    public static void release(ServiceHub services, List<StateAndRef<Cash.State>> gathered) {
+        List<StateRef> refs = new ArrayList<>(gathered.size());
+        for (StateAndRef<Cash.State> stateAndRef : gathered) {
+            refs.add(stateAndRef.getRef());
+        }
+
+        NodeServices.get(services, CashPool.class).release(refs);
+    }
+
+    /**
+     * All unconsumed cash of {@code token} owned by this node, claimed or not.
+     */
+    public static List<StateAndRef<Cash.State>> owned(ServiceHub services, Issued<Currency> token) {
+        return NodeServices.get(services, CashPool.class).owned(token);
+    }
+
+    /**
+     * The issued currencies this node holds cash in.
+     */
+    public static Set<Issued<Currency>> ownedTokens(ServiceHub services) {
+        return NodeServices.get(services, CashPool.class).ownedTokens();
+    }
+
+    /**
+     * Builds and signs a transaction that spends {@code inputs} into the given outputs, returning any change to this
+     * node.
+     */
+    public static TransactionBuilder spend(ServiceHub services,
+                                           Issued<Currency> token,
+                                           List<StateAndRef<Cash.State>> inputs,
+                                           List<Output> outputs) {
+        CompositeKey me = services.getMyInfo().getLegalIdentity().getOwningKey();
+        TransactionBuilder builder = new TransactionType.General.Builder(inputs.get(0).getState().getNotary());
+
+        addLeg(builder, token, inputs, outputs, me);
+        builder.addCommand(new Cash().generateMoveCommand(), Collections.singletonList(me));
+        builder.signWith(services.getLegalIdentityKey());
+
+        return builder;
+    }
+
+    /**
+     * Adds one party's side of a cash movement to {@code builder}: the inputs, the outputs, and any change back to
+     * {@code changeOwner}. The caller adds the move command and signatures.
+     */
+    public static void addLeg(TransactionBuilder builder,
+                              Issued<Currency> token,
+                              List<StateAndRef<Cash.State>> inputs,
+                              List<Output> outputs,
+                              CompositeKey changeOwner) {
+        addLeg(builder, token, inputs, outputs, 0, changeOwner);
+    }
+
+    /**
+     * As {@link #addLeg(TransactionBuilder, Issued, List, List, CompositeKey)}, but {@code exited} of the inputs leaves
+     * the ledger instead of coming back as change. The caller adds the matching exit command.
+     *
+     * @throws IllegalArgumentException if the inputs do not cover the outputs and the exit.
+     */
+    public static void addLeg(TransactionBuilder builder,
+                              Issued<Currency> token,
+                              List<StateAndRef<Cash.State>> inputs,
+                              List<Output> outputs,
+                              long exited,
+                              CompositeKey changeOwner) {
+        long available = 0;
+        long spent = exited;
+
+        for (StateAndRef<Cash.State> input : inputs) {
+            builder.addInputState(input);
+            available += input.getState().getData().getAmount().getQuantity();
+        }
+
+        for (Output output : outputs) {
+            builder.addOutputState(new Cash.State(new Amount<>(output.quantity, token), output.owner));
+            spent += output.quantity;
+        }
+
+        if (available < spent) {
+            throw new IllegalArgumentException("Inputs of " + new Amount<>(available, token) + " do not cover " + new Amount<>(spent, token));
+        }
+        if (available > spent) {
+            builder.addOutputState(new Cash.State(new Amount<>(available - spent, token), changeOwner));
+        }
+    }
+
+    public static class Output {
+        private final CompositeKey owner;
+        private final long quantity;
+
+        public Output(CompositeKey owner, long quantity) {
+            this.owner = owner;
+            this.quantity = quantity;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static StateAndRef<Cash.State> cast(StateAndRef<? extends ContractState> stateAndRef) {
+        return (StateAndRef<Cash.State>) stateAndRef;
+    }
+}
@@ -1,90 +1,156 @@
 package com.example.flow;
 
 import co.paralleluniverse.fibers.Suspendable;
-import com.example.api.ExampleApi;
-import com.example.models.CurrencyRate;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import net.corda.core.contracts.Amount;
-import net.corda.core.contracts.ContractsDSL;
-import net.corda.core.contracts.Issued;
-import net.corda.core.contracts.PartyAndReference;
+import com.example.service.CurrencyDirectory;
+import com.example.service.FeeRedemptions;
+import com.example.service.LiquidityLedger;
+import com.example.service.NettingEngine;
+import com.example.service.NodeServices;
+import com.example.service.StageMetrics;
+import net.corda.contracts.asset.Cash;
+import net.corda.core.contracts.*;
+import net.corda.core.crypto.DigitalSignature;
 import net.corda.core.crypto.Party;
 import net.corda.core.crypto.SecureHash;
 import net.corda.core.flows.FlowException;
 import net.corda.core.flows.FlowLogic;
-import net.corda.core.node.ServiceEntry;
+import net.corda.core.node.ServiceHub;
 import net.corda.core.serialization.CordaSerializable;
 import net.corda.core.serialization.OpaqueBytes;
 import net.corda.core.transactions.SignedTransaction;
 import net.corda.core.utilities.UntrustworthyData;
-import net.corda.flows.CashPaymentFlow;
-import net.corda.jackson.JacksonSupport;
+import net.corda.flows.ResolveTransactionsFlow;
 
-import java.io.IOException;
+import java.security.PublicKey;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Currency;
 import java.util.List;
-import java.util.Set;
 
 /**
  * Created by evilkid on 4/6/2017.
  */
 public class ExampleFlow {
 
-    public static class MasterFxFlow extends FlowLogic<SignedTransaction> {
+    /**
+     * Pays the trader and asks it to pay the receiver. Returns the id of the trader's payout transaction or, when the
+     * trader nets payouts, the ticket the settlement will be recorded under (see {@link NettingFlow}).
+     */
+    public static class MasterFxFlow extends FlowLogic<SecureHash> {
 
         private final Party fxTrader;
         private final Party receiver;
         private final Amount<Issued<Currency>> amount;
+        private final Currency targetCurrency;
+        private final StageMetrics.Timer stages = new StageMetrics.Timer();
 
 
         public MasterFxFlow(Party receiver, Party fxTrader, Amount<Issued<Currency>> amount) {
+            this(receiver, fxTrader, amount, null);
+        }
+
+        /**
+         * @param targetCurrency the currency the receiver should be paid in, or null to look it up from the
+         *                       currencies the receiver advertises.
+         */
+        public MasterFxFlow(Party receiver, Party fxTrader, Amount<Issued<Currency>> amount, Currency targetCurrency) {
             System.out.println("init flow");
             this.fxTrader = fxTrader;
             this.receiver = receiver;
             this.amount = amount;
+            this.targetCurrency = targetCurrency;
         }
 
         @Override
         @Suspendable
-        public SignedTransaction call() throws FlowException {
+        public SecureHash call() throws FlowException {
 
 
-            System.out.println("sending receive...");
+            long started = System.nanoTime();
 
-            //gimmi which currencies ur using...
-            UntrustworthyData<List> res = receive(List.class, receiver);
+            // Only the chosen currency, a few ids and the fields stay live across the sub-flows below.
+            try {
+                stages.start("MasterFxFlow.currency");
+                Currency currency = targetCurrency != null ? targetCurrency : advertisedCurrency();
 
-            List<Currency> currencies = res.unwrap(list -> list);
+                if (currency == null) {
+                    currency = askReceiverCurrency();
+                }
+                stages.stop(getServiceHub());
+
+                // Fails here, before we pay anything, if the trader cannot cover the payout.
+                stages.start("MasterFxFlow.reserve");
+                SecureHash reservation = subFlow(new LiquidityFlow.Reserve(fxTrader, amount.getToken().getProduct(), currency, amount.getQuantity()));
+                stages.stop(getServiceHub());
+
+                stages.start("MasterFxFlow.payFees");
+                SecureHash paidFees = subFlow(new PaymentFlow(amount, fxTrader));
+                stages.stop(getServiceHub());
+                System.out.println("we have a: " + paidFees);
+
+                stages.start("MasterFxFlow.exchange");
+                SecureHash exchanged = subFlow(new ExchangeInitiator(new ExchangeInfo(paidFees, receiver, amount.getQuantity(), amount.getToken().getProduct(), currency, reservation), fxTrader));
+                stages.stop(getServiceHub());
+
+                System.out.println("done");
+                StageMetrics.succeeded(getServiceHub(), "MasterFxFlow.total", started);
+
+                return exchanged;
+            } catch (FlowException | RuntimeException e) {
+                stages.fail(getServiceHub());
+                StageMetrics.failed(getServiceHub(), "MasterFxFlow.total");
+                throw e;
+            }
+        }
 
+        /**
+         * Asks the receiver which currencies it holds. Kept out of {@link #call()} so the list is not live in the
+         * checkpoints of the payments that follow.
+         */
+        @Suspendable
+        private Currency askReceiverCurrency() throws FlowException {
+            System.out.println("sending receive...");
 
-            SignedTransaction tx = subFlow(new CashPaymentFlow(amount, fxTrader));
-            System.out.println("we have a: " + tx);
-//            subFlow()
+            UntrustworthyData<List> res = receive(List.class, receiver);
 
-//            Object o = sendAndReceive(SignedTransaction.class, fxTrader, new ExchangeInfo(tx, receiver, amount.getQuantity(), currencies.get(0)));
+            List<Currency> currencies = res.unwrap(list -> list);
+            if (currencies.isEmpty()) {
+                throw new FlowException(receiver.getName() + " holds no currency");
+            }
 
-            SignedTransaction ftx = subFlow(new ExchangeInitiator(new ExchangeInfo(tx, receiver, amount.getQuantity(), currencies.get(0)), fxTrader));
+            return currencies.get(0);
+        }
 
-            System.out.println("waiting...");
-            System.out.println("done");
+        /**
+         * The receiver's currency from the locally cached network map, or null if it advertises none.
+         */
+        private Currency advertisedCurrency() {
+            List<Currency> currencies = NodeServices.get(getServiceHub(), CurrencyDirectory.class)
+                    .acceptedBy(receiver.getName());
 
-            return ftx;
+            return currencies.isEmpty() ? null : currencies.get(0);
         }
 
+        /**
+         * What the trader needs to pay out: the id of the payment it received rather than the transaction itself,
+         * which the trader already holds from finality or fetches from us.
+         */
         @CordaSerializable
-        class ExchangeInfo {
-            private SignedTransaction paidFees;
-            private Party receiver;
-            private Long amount;
-            private Currency currency;
-
-            public ExchangeInfo(SignedTransaction paidFees, Party receiver, Long amount, Currency currency) {
+        public static class ExchangeInfo {
+            private final SecureHash paidFees;
+            private final Party receiver;
+            private final long amount;
+            private final Currency fromCurrency;
+            private final Currency currency;
+            private final SecureHash reservation;
+
+            public ExchangeInfo(SecureHash paidFees, Party receiver, long amount, Currency fromCurrency, Currency currency, SecureHash reservation) {
                 this.paidFees = paidFees;
                 this.receiver = receiver;
                 this.amount = amount;
+                this.fromCurrency = fromCurrency;
                 this.currency = currency;
+                this.reservation = reservation;
             }
 
             @Override
@@ -93,7 +159,9 @@ public class ExampleFlow {
                         "paidFees=" + paidFees +
                         ", receiver=" + receiver +
                         ", amount=" + amount +
+                        ", fromCurrency=" + fromCurrency +
                         ", currency=" + currency +
+                        ", reservation=" + reservation +
                         '}';
             }
         }
@@ -120,11 +188,7 @@ public class ExampleFlow {
                 List<Currency> result = new ArrayList<>(getServiceHub().getVaultService().getCashBalances().keySet());
 
                 if (result.isEmpty()) {
-                    for (ServiceEntry serviceEntry : getServiceHub().getMyInfo().getAdvertisedServices()) {
-                        if (serviceEntry.getInfo().component1().getId().contains("main.currency")) {
-                            result.add(ContractsDSL.currency(serviceEntry.getInfo().component1().getId().split("\\.")[2]));
-                        }
-                    }
+                    result.addAll(CurrencyDirectory.advertisedCurrencies(getServiceHub().getMyInfo()));
                 }
 
                 send(otherParty, result);
@@ -139,7 +203,7 @@ public class ExampleFlow {
     }
 
 
-    public static class ExchangeInitiator extends FlowLogic<SignedTransaction> {
+    public static class ExchangeInitiator extends FlowLogic<SecureHash> {
 
 
         private MasterFxFlow.ExchangeInfo exchangeInfo;
@@ -153,16 +217,17 @@ public class ExampleFlow {
 
         @Override
         @Suspendable
-        public SignedTransaction call() throws FlowException {
+        public SecureHash call() throws FlowException {
             System.out.println("from ExchangeInitiator..");
 
-            return sendAndReceive(SignedTransaction.class, fxTrader, exchangeInfo).unwrap(signedTransaction -> signedTransaction);
+            return sendAndReceive(SecureHash.class, fxTrader, exchangeInfo).unwrap(id -> id);
         }
     }
 
-    public static class ExchangeResponder extends FlowLogic<SignedTransaction> {
+    public static class ExchangeResponder extends FlowLogic<SecureHash> {
 
         private final Party otherParty;
+        private final StageMetrics.Timer stages = new StageMetrics.Timer();
 
         public ExchangeResponder(Party otherParty) {
             this.otherParty = otherParty;
@@ -171,50 +236,172 @@ public class ExampleFlow {
 
         @Override
         @Suspendable
-        public SignedTransaction call() throws FlowException {
+        public SecureHash call() throws FlowException {
+            MasterFxFlow.ExchangeInfo info = receive(MasterFxFlow.ExchangeInfo.class, otherParty).unwrap(exchangeInfo -> exchangeInfo);
 
+            try {
+                stages.start("ExchangeResponder.checkFees");
+                checkFeesPaid(info);
+                stages.stop(getServiceHub());
+            } catch (FlowException | RuntimeException e) {
+                stages.fail(getServiceHub());
+                release(info);
+                throw e;
+            }
 
+            FeeRedemptions redemptions = NodeServices.get(getServiceHub(), FeeRedemptions.class);
+            SecureHash ticket;
+            Amount<Issued<Currency>> payout;
             try {
-                MasterFxFlow.ExchangeInfo info = receive(MasterFxFlow.ExchangeInfo.class, otherParty).unwrap(exchangeInfo -> exchangeInfo);
+                // Fails, and the payer with it, if the pair cannot be priced any more.
+                payout = payout(info);
+                ticket = submitForNetting(info, payout);
+            } catch (FlowException | RuntimeException e) {
+                redemptions.release(info.paidFees);
+                release(info);
+                throw e;
+            }
 
-                float rateVal = 0;
+            if (ticket != null) {
+                // The netting journal owns the payout now; committed with the next checkpoint.
+                redemptions.redeem(getServiceHub().getVaultService(), info.paidFees, "ticket " + ticket);
+                send(otherParty, ticket);
+                return ticket;
+            }
 
-                try {
-                    String ratesJson = ExampleApi.getLastElement(getServiceHub().getVaultService().getTransactionNotes(SecureHash.sha256("rates")));
-                    ObjectMapper json = JacksonSupport.createNonRpcMapper();
-                    Set<CurrencyRate> rates = json.readValue(ratesJson, new TypeReference<Set<CurrencyRate>>() {
-                    });
+            SecureHash exchanged;
+            try {
+                System.out.println("execing");
+                stages.start("ExchangeResponder.payout");
+                exchanged = subFlow(new PaymentFlow(payout, info.receiver));
+                stages.stop(getServiceHub());
+            } catch (FlowException | RuntimeException e) {
+                // Nothing was paid out, so the fee may buy another exchange.
+                stages.fail(getServiceHub());
+                redemptions.release(info.paidFees);
+                throw new FlowException("Payout to " + info.receiver.getName() + " failed: " + e.getMessage(), e);
+            } finally {
+                release(info);
+            }
 
-                    for (CurrencyRate rate : rates) {
-                        if ("USD".equals(rate.getFrom()) && info.currency.getCurrencyCode().equals(rate.getTo())) {
-                            rateVal = rate.getRate();
-                        }
-                    }
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+            redemptions.redeem(getServiceHub().getVaultService(), info.paidFees, "payout " + exchanged);
+            send(otherParty, exchanged);
 
-                Amount<Issued<Currency>> amount = new Amount<>(
-                        info.amount - (long) (rateVal * info.amount),
-                        new Issued<>(
-                                new PartyAndReference(
-                                        getServiceHub().getNetworkMapCache().getNodeByLegalName("NodeC").getLegalIdentity(),
-                                        OpaqueBytes.Companion.of((byte) 1)
-                                ),
-                                info.currency
-                        )
-                );
+            return exchanged;
+        }
 
-                System.out.println("execing");
-                SignedTransaction signedTransaction = subFlow(new CashPaymentFlow(amount, info.receiver));
+        /**
+         * Gives back the liquidity reserved for this exchange once its payout has settled or failed.
+         */
+        private void release(MasterFxFlow.ExchangeInfo info) {
+            if (info.reservation != null) {
+                NodeServices.get(getServiceHub(), LiquidityLedger.class).release(info.reservation);
+            }
+        }
 
-                send(otherParty, signedTransaction);
+        /**
+         * Queues the payout with the trader's {@link NettingEngine} and returns its ticket, or null when netting is off
+         * and the payout should be made now.
+         */
+        private SecureHash submitForNetting(MasterFxFlow.ExchangeInfo info, Amount<Issued<Currency>> payout) {
+            NettingEngine netting = NodeServices.get(getServiceHub(), NettingEngine.class);
 
-                return signedTransaction;
-            } catch (Exception e) {
-                e.printStackTrace();
+            if (!netting.isEnabled()) {
                 return null;
             }
+
+            if (info.reservation != null) {
+                // Released by the settlement instead.
+                NodeServices.get(getServiceHub(), LiquidityLedger.class).hold(info.reservation);
+            }
+
+            return netting.submit(info.paidFees, otherParty, info.receiver, payout, info.reservation);
+        }
+
+        private Amount<Issued<Currency>> payout(MasterFxFlow.ExchangeInfo info) throws FlowException {
+            long started = System.nanoTime();
+            long quantity = payoutQuantity(getServiceHub(), info.fromCurrency, info.currency, info.amount);
+            StageMetrics.succeeded(getServiceHub(), "ExchangeResponder.rateLookup", started);
+
+            return new Amount<>(quantity, payoutToken(getServiceHub(), info.currency));
+        }
+
+        /**
+         * What the trader pays out for {@code amount} of {@code fromCurrency}.
+         *
+         * @throws FlowException if the pair is neither booked nor derivable from the rate book.
+         */
+        static long payoutQuantity(ServiceHub services, Currency fromCurrency, Currency currency, long amount) throws FlowException {
+            float rateVal = RateFlow.rateBook(services).matrix().rate(fromCurrency, currency);
+            if (Float.isNaN(rateVal)) {
+                throw new FlowException("No rate for " + fromCurrency + " to " + currency);
+            }
+
+            return amount - (long) (rateVal * amount);
+        }
+
+        static Issued<Currency> payoutToken(ServiceHub services, Currency currency) {
+            return new Issued<>(
+                    new PartyAndReference(
+                            services.getNetworkMapCache().getNodeByLegalName("NodeC").getLegalIdentity(),
+                            OpaqueBytes.Companion.of((byte) 1)
+                    ),
+                    currency
+            );
+        }
+
+        /**
+         * Checks that the referenced transaction pays us the amount being exchanged, reading it from our own storage
+         * and fetching it from the payer only if finality has not delivered it yet. Only a payment the payer signed, in
+         * cash from an issuer that advertises the currency, counts, and only once: the payment is claimed in
+         * {@link FeeRedemptions} when it passes.
+         */
+        @Suspendable
+        private void checkFeesPaid(MasterFxFlow.ExchangeInfo info) throws FlowException {
+            // Look the transaction up again afterwards rather than keep it live across the resolution.
+            if (paidFees(info) == null) {
+                subFlow(new ResolveTransactionsFlow(Collections.singleton(info.paidFees), otherParty));
+            }
+
+            SignedTransaction paidFees = paidFees(info);
+            if (paidFees == null) {
+                throw new FlowException("Unknown fee payment " + info.paidFees);
+            }
+
+            List<PublicKey> signers = new ArrayList<>();
+            for (DigitalSignature.WithKey sig : paidFees.getSigs()) {
+                signers.add(sig.getBy());
+            }
+            if (!otherParty.getOwningKey().isFulfilledBy(signers)) {
+                throw new FlowException("Fee payment " + info.paidFees + " was not made by " + otherParty.getName());
+            }
+
+            CurrencyDirectory directory = NodeServices.get(getServiceHub(), CurrencyDirectory.class);
+            long paid = 0;
+            for (TransactionState<ContractState> output : paidFees.getTx().getOutputs()) {
+                if (output.getData() instanceof Cash.State) {
+                    Cash.State cash = (Cash.State) output.getData();
+                    Issued<Currency> token = cash.getAmount().getToken();
+
+                    if (cash.getOwner().equals(getServiceHub().getMyInfo().getLegalIdentity().getOwningKey())
+                            && token.getProduct().equals(info.fromCurrency)
+                            && directory.issues(token.getIssuer().getParty(), info.fromCurrency)) {
+                        paid += cash.getAmount().getQuantity();
+                    }
+                }
+            }
+
+            if (paid < info.amount) {
+                throw new FlowException("Fee payment " + info.paidFees + " does not cover " + info.amount + " " + info.fromCurrency);
+            }
+
+            if (!NodeServices.get(getServiceHub(), FeeRedemptions.class).claim(getServiceHub().getVaultService(), info.paidFees)) {
+                throw new FlowException("Fee payment " + info.paidFees + " has already been exchanged");
+            }
+        }
+
+        private SignedTransaction paidFees(MasterFxFlow.ExchangeInfo info) {
+            return getServiceHub().getStorageService().getValidatedTransactions().getTransaction(info.paidFees);
         }
     }
 
@@ -0,0 +1,72 @@
+package com.example.flow;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.example.service.CashPool;
+import com.example.service.NodeServices;
+import net.corda.contracts.asset.Cash;
+import net.corda.core.contracts.*;
+import net.corda.core.crypto.Party;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.serialization.OpaqueBytes;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+import net.corda.flows.FinalityFlow;
+
+import java.util.Collections;
+import java.util.Currency;
+import java.util.List;
+
+/**
+ * Exits cash this node issued under {@code issueRef} and still holds. Does what {@code CashExitFlow} does, but picks
+ * the cash through the node's {@link CashPool} so it cannot spend states a concurrent payment or rebalance has claimed.
+ */
+public class ExitFlow extends FlowLogic<SignedTransaction> {
+
+    private final Amount<Currency> amount;
+    private final OpaqueBytes issueRef;
+
+    public ExitFlow(Amount<Currency> amount, OpaqueBytes issueRef) {
+        this.amount = amount;
+        this.issueRef = issueRef;
+    }
+
+    @Override
+    @Suspendable
+    public SignedTransaction call() throws FlowException {
+        SignedTransaction tx = buildExit();
+
+        try {
+            subFlow(new FinalityFlow(tx, Collections.emptySet()));
+        } catch (FlowException | RuntimeException e) {
+            NodeServices.get(getServiceHub(), CashPool.class).release(tx.getTx().getInputs());
+            throw e;
+        }
+
+        return tx;
+    }
+
+    private SignedTransaction buildExit() throws FlowException {
+        if (amount.getQuantity() <= 0) {
+            throw new FlowException("Exit amount must be positive");
+        }
+
+        Party me = getServiceHub().getMyInfo().getLegalIdentity();
+        Issued<Currency> token = new Issued<>(me.ref(issueRef), amount.getToken());
+        List<StateAndRef<Cash.State>> inputs = CashSpends.gather(getServiceHub(), token, amount.getQuantity());
+
+        try {
+            // Inputs minus the exit come back as change; we are both owner and issuer, so one key signs both commands.
+            TransactionBuilder builder = new TransactionType.General.Builder(inputs.get(0).getState().getNotary());
+            CashSpends.addLeg(builder, token, inputs, Collections.emptyList(), amount.getQuantity(), me.getOwningKey());
+            builder.addCommand(new Cash().generateMoveCommand(), Collections.singletonList(me.getOwningKey()));
+            builder.addCommand(new Cash.Commands.Exit(new Amount<>(amount.getQuantity(), token)), Collections.singletonList(me.getOwningKey()));
+            builder.signWith(getServiceHub().getLegalIdentityKey());
+
+            return builder.toSignedTransaction(true);
+        } catch (RuntimeException e) {
+            CashSpends.release(getServiceHub(), inputs);
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package com.example.flow;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.example.service.CashPool;
+import com.example.service.NodeServices;
+import net.corda.contracts.asset.Cash;
+import net.corda.core.contracts.*;
+import net.corda.core.crypto.CompositeKey;
+import net.corda.core.crypto.CryptoUtilities;
+import net.corda.core.crypto.Party;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.serialization.CordaSerializable;
+import net.corda.core.serialization.OpaqueBytes;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+import net.corda.core.transactions.WireTransaction;
+import net.corda.flows.FinalityFlow;
+import net.corda.flows.ResolveTransactionsFlow;
+
+import java.util.*;
+
+/**
+ * An FX exchange settled as one atomic transaction.
+ * <p>
+ * The payer proposes the cash it will spend; the trader resolves it, prices the exchange, adds its own cash paying the
+ * receiver in the target currency, signs and sends the transaction back. The payer checks it, adds its signature and
+ * finalises, then tells the trader whether the swap was committed so it can give back the cash it had set aside if not.
+ * Compared to {@link ExampleFlow.MasterFxFlow}, which makes two payments one after the other, this is one transaction
+ * and one notarisation per exchange, and neither side can end up paid without paying.
+ */
+public class FxSwapFlow {
+
+    private static final String COMMITTED = "committed";
+
+    public static class Initiator extends FlowLogic<SignedTransaction> {
+
+        private final Party receiver;
+        private final Party fxTrader;
+        private final Amount<Issued<Currency>> amount;
+        private final Currency targetCurrency;
+
+        public Initiator(Party receiver, Party fxTrader, Amount<Issued<Currency>> amount, Currency targetCurrency) {
+            this.receiver = receiver;
+            this.fxTrader = fxTrader;
+            this.amount = amount;
+            this.targetCurrency = targetCurrency;
+        }
+
+        @Override
+        @Suspendable
+        public SignedTransaction call() throws FlowException {
+            Proposal proposal = propose();
+            SignedTransaction signed;
+
+            try {
+                SignedTransaction partial = sendAndReceive(SignedTransaction.class, fxTrader, proposal)
+                        .unwrap(tx -> tx);
+
+                checkProposalHonoured(partial, proposal);
+
+                signed = partial.plus(CryptoUtilities.signWithECDSA(getServiceHub().getLegalIdentityKey(), partial.getId().getBytes()));
+
+                subFlow(new FinalityFlow(signed, new HashSet<>(Arrays.asList(fxTrader, receiver))));
+            } catch (FlowException | RuntimeException e) {
+                NodeServices.get(getServiceHub(), CashPool.class).release(proposal.inputs);
+                abandon(e);
+                throw e;
+            }
+
+            send(fxTrader, COMMITTED);
+
+            return signed;
+        }
+
+        /**
+         * Tells the trader the swap will not be committed. Best effort: the trader may already have given up on us.
+         */
+        @Suspendable
+        private void abandon(Exception reason) {
+            try {
+                send(fxTrader, reason.getMessage() == null ? reason.getClass().getSimpleName() : reason.getMessage());
+            } catch (RuntimeException e) {
+                // The session is already over; the trader's claims lapse with their TTL.
+            }
+        }
+
+        private Proposal propose() throws FlowException {
+            List<StateRef> inputs = new ArrayList<>();
+
+            for (StateAndRef<Cash.State> input : CashSpends.gather(getServiceHub(), amount.getToken(), amount.getQuantity())) {
+                inputs.add(input.getRef());
+            }
+
+            return new Proposal(inputs, amount.getToken(), amount.getQuantity(), receiver, targetCurrency);
+        }
+
+        private void checkProposalHonoured(SignedTransaction partial, Proposal proposal) throws FlowException {
+            CompositeKey me = getServiceHub().getMyInfo().getLegalIdentity().getOwningKey();
+            WireTransaction wtx = partial.verifySignatures(me);
+
+            Set<StateRef> proposed = new HashSet<>(proposal.inputs);
+            long available = 0;
+
+            for (StateRef input : wtx.getInputs()) {
+                if (proposed.remove(input)) {
+                    available += ((Cash.State) getServiceHub().loadState(input).getData()).getAmount().getQuantity();
+                } else if (ownedByMe(input, me)) {
+                    throw new FlowException("Swap spends cash that was not offered: " + input);
+                }
+            }
+
+            if (!proposed.isEmpty()) {
+                throw new FlowException("Swap does not spend the offered cash");
+            }
+
+            long toTrader = 0;
+            long change = 0;
+            long toReceiver = 0;
+
+            for (TransactionState<ContractState> output : wtx.getOutputs()) {
+                if (!(output.getData() instanceof Cash.State)) {
+                    throw new FlowException("Swap contains a non-cash output");
+                }
+
+                Cash.State cash = (Cash.State) output.getData();
+                if (cash.getAmount().getToken().equals(proposal.token)) {
+                    if (cash.getOwner().equals(fxTrader.getOwningKey())) {
+                        toTrader += cash.getAmount().getQuantity();
+                    } else if (cash.getOwner().equals(me)) {
+                        change += cash.getAmount().getQuantity();
+                    } else {
+                        throw new FlowException("Swap pays our cash to a third party");
+                    }
+                } else if (cash.getOwner().equals(receiver.getOwningKey())
+                        && cash.getAmount().getToken().getProduct().equals(targetCurrency)) {
+                    toReceiver += cash.getAmount().getQuantity();
+                }
+            }
+
+            if (toTrader != proposal.quantity || change != available - proposal.quantity) {
+                throw new FlowException("Swap does not move the agreed amount");
+            }
+            if (toReceiver <= 0) {
+                throw new FlowException("Swap does not pay the receiver");
+            }
+
+            wtx.toLedgerTransaction(getServiceHub()).verify();
+        }
+
+        private boolean ownedByMe(StateRef ref, CompositeKey me) {
+            try {
+                ContractState state = getServiceHub().loadState(ref).getData();
+                return state instanceof Cash.State && ((Cash.State) state).getOwner().equals(me);
+            } catch (RuntimeException e) {
+                // We never saw the transaction that produced it, so it cannot be ours.
+                return false;
+            }
+        }
+    }
+
+    public static class Responder extends FlowLogic<SignedTransaction> {
+
+        private final Party otherParty;
+
+        public Responder(Party otherParty) {
+            this.otherParty = otherParty;
+        }
+
+        @Override
+        @Suspendable
+        public SignedTransaction call() throws FlowException {
+            Proposal proposal = receive(Proposal.class, otherParty).unwrap(p -> {
+                if (p.inputs.isEmpty() || p.quantity <= 0) {
+                    throw new FlowException("Empty swap proposal");
+                }
+                return p;
+            });
+
+            Set<SecureHash> dependencies = new HashSet<>();
+            for (StateRef input : proposal.inputs) {
+                dependencies.add(input.getTxhash());
+            }
+            subFlow(new ResolveTransactionsFlow(dependencies, otherParty));
+
+            SignedTransaction partial = buildSwap(proposal);
+            String outcome;
+
+            try {
+                send(otherParty, partial);
+                outcome = receive(String.class, otherParty).unwrap(o -> o);
+            } catch (FlowException | RuntimeException e) {
+                NodeServices.get(getServiceHub(), CashPool.class).release(partial.getTx().getInputs());
+                throw e;
+            }
+
+            if (!COMMITTED.equals(outcome)) {
+                NodeServices.get(getServiceHub(), CashPool.class).release(partial.getTx().getInputs());
+                throw new FlowException("Swap abandoned by " + otherParty.getName() + ": " + outcome);
+            }
+
+            return partial;
+        }
+
+        private SignedTransaction buildSwap(Proposal proposal) throws FlowException {
+            CompositeKey payer = otherParty.getOwningKey();
+            Party me = getServiceHub().getMyInfo().getLegalIdentity();
+
+            List<StateAndRef<Cash.State>> payerInputs = new ArrayList<>();
+            long offered = 0;
+            Party notary = null;
+
+            for (StateRef ref : proposal.inputs) {
+                TransactionState<?> state = getServiceHub().loadState(ref);
+
+                if (!(state.getData() instanceof Cash.State)) {
+                    throw new FlowException("Offered state is not cash: " + ref);
+                }
+
+                Cash.State cash = (Cash.State) state.getData();
+                if (!cash.getOwner().equals(payer) || !cash.getAmount().getToken().equals(proposal.token)) {
+                    throw new FlowException("Offered cash is not the payer's " + proposal.token + ": " + ref);
+                }
+                if (notary != null && !notary.equals(state.getNotary())) {
+                    throw new FlowException("Offered cash is under more than one notary");
+                }
+
+                notary = state.getNotary();
+                payerInputs.add(CashSpends.cast(new StateAndRef<>(state, ref)));
+                offered += cash.getAmount().getQuantity();
+            }
+
+            if (offered < proposal.quantity) {
+                throw new FlowException("Offered cash does not cover " + proposal.quantity);
+            }
+
+            float rate = RateFlow.rateBook(getServiceHub()).matrix().rate(proposal.token.getProduct(), proposal.targetCurrency);
+            if (Float.isNaN(rate)) {
+                throw new FlowException("No rate for " + proposal.token.getProduct() + " to " + proposal.targetCurrency);
+            }
+
+            long payout = proposal.quantity - (long) (rate * proposal.quantity);
+            Issued<Currency> payoutToken = new Issued<>(new PartyAndReference(me, OpaqueBytes.Companion.of((byte) 1)), proposal.targetCurrency);
+            List<StateAndRef<Cash.State>> traderInputs = CashSpends.gather(getServiceHub(), payoutToken, payout, notary);
+
+            try {
+                TransactionBuilder builder = new TransactionType.General.Builder(notary);
+                CashSpends.addLeg(builder, proposal.token, payerInputs,
+                        Collections.singletonList(new CashSpends.Output(me.getOwningKey(), proposal.quantity)), payer);
+                CashSpends.addLeg(builder, payoutToken, traderInputs,
+                        Collections.singletonList(new CashSpends.Output(proposal.receiver.getOwningKey(), payout)), me.getOwningKey());
+                builder.addCommand(new Cash().generateMoveCommand(), Arrays.asList(payer, me.getOwningKey()));
+                builder.signWith(getServiceHub().getLegalIdentityKey());
+
+                return builder.toSignedTransaction(false);
+            } catch (RuntimeException e) {
+                CashSpends.release(getServiceHub(), traderInputs);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * What the payer offers: references to the cash it will spend, not the states themselves, which the trader
+     * resolves from the payer's transaction history.
+     */
+    @CordaSerializable
+    public static class Proposal {
+        private final List<StateRef> inputs;
+        private final Issued<Currency> token;
+        private final long quantity;
+        private final Party receiver;
+        private final Currency targetCurrency;
+
+        public Proposal(List<StateRef> inputs, Issued<Currency> token, long quantity, Party receiver, Currency targetCurrency) {
+            this.inputs = inputs;
+            this.token = token;
+            this.quantity = quantity;
+            this.receiver = receiver;
+            this.targetCurrency = targetCurrency;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.flow;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.example.service.LiquidityLedger;
+import com.example.service.NodeServices;
+import net.corda.core.contracts.Issued;
+import net.corda.core.crypto.Party;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.serialization.CordaSerializable;
+
+import java.util.Currency;
+
+/**
+ * Reserves the trader's payout for an exchange in its {@link LiquidityLedger} before the payer pays anything, so an
+ * exchange the trader cannot cover fails before any cash moves.
+ */
+public class LiquidityFlow {
+
+    /**
+     * Returns the reservation's id, or fails with the trader's reason.
+     */
+    public static class Reserve extends FlowLogic<SecureHash> {
+
+        private final Party fxTrader;
+        private final Request request;
+
+        public Reserve(Party fxTrader, Currency fromCurrency, Currency currency, long amount) {
+            this.fxTrader = fxTrader;
+            this.request = new Request(fromCurrency, currency, amount);
+        }
+
+        @Override
+        @Suspendable
+        public SecureHash call() throws FlowException {
+            return sendAndReceive(SecureHash.class, fxTrader, request).unwrap(id -> id);
+        }
+    }
+
+    public static class Reserver extends FlowLogic<SecureHash> {
+
+        private final Party otherParty;
+
+        public Reserver(Party otherParty) {
+            this.otherParty = otherParty;
+        }
+
+        @Override
+        @Suspendable
+        public SecureHash call() throws FlowException {
+            Request request = receive(Request.class, otherParty).unwrap(r -> {
+                if (r.amount <= 0) {
+                    throw new FlowException("Amount must be positive");
+                }
+                return r;
+            });
+
+            // Thrown before the reply, so the payer's Reserve fails with this message.
+            SecureHash reservation = reserve(request);
+
+            send(otherParty, reservation);
+
+            return reservation;
+        }
+
+        private SecureHash reserve(Request request) throws FlowException {
+            Issued<Currency> token = ExampleFlow.ExchangeResponder.payoutToken(getServiceHub(), request.currency);
+            long payout = ExampleFlow.ExchangeResponder.payoutQuantity(getServiceHub(), request.fromCurrency, request.currency, request.amount);
+
+            SecureHash reservation = NodeServices.get(getServiceHub(), LiquidityLedger.class).reserve(token, payout);
+            if (reservation == null) {
+                throw new FlowException("Insufficient " + request.currency + " liquidity for " + payout);
+            }
+
+            return reservation;
+        }
+    }
+
+    @CordaSerializable
+    public static class Request {
+        private final Currency fromCurrency;
+        private final Currency currency;
+        private final long amount;
+
+        public Request(Currency fromCurrency, Currency currency, long amount) {
+            this.fromCurrency = fromCurrency;
+            this.currency = currency;
+            this.amount = amount;
+        }
+    }
+}
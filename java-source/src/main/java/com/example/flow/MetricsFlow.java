@@ -0,0 +1,36 @@
+package com.example.flow;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.example.models.CheckpointStats;
+import com.example.models.StageLatency;
+import com.example.service.CheckpointMeter;
+import com.example.service.NodeServices;
+import com.example.service.StageMetrics;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+
+import java.util.List;
+
+/**
+ * Flows the web API starts over RPC to read the node's flow metrics.
+ */
+public class MetricsFlow {
+
+    public static class Checkpoints extends FlowLogic<CheckpointStats> {
+
+        @Override
+        @Suspendable
+        public CheckpointStats call() throws FlowException {
+            return CheckpointMeter.measure();
+        }
+    }
+
+    public static class Stages extends FlowLogic<List<StageLatency>> {
+
+        @Override
+        @Suspendable
+        public List<StageLatency> call() throws FlowException {
+            return NodeServices.get(getServiceHub(), StageMetrics.class).snapshot();
+        }
+    }
+}
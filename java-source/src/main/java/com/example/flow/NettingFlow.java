@@ -0,0 +1,302 @@
+package com.example.flow;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.example.service.LiquidityLedger;
+import com.example.service.NodeServices;
+import net.corda.core.contracts.Issued;
+import net.corda.core.crypto.Party;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.serialization.CordaSerializable;
+
+import java.util.*;
+
+/**
+ * Settlement side of {@link com.example.service.NettingEngine}.
+ * <p>
+ * Outcomes are recorded on the payer's node as transaction notes keyed by the ticket the trader handed out, holding
+ * either the id of the settling transaction or {@code failed: <reason>}.
+ */
+public class NettingFlow {
+
+    /**
+     * Nets a batch of payouts per currency and receiver, pays them with {@link BatchPaymentFlow} and confirms every
+     * ticket to its payer. Returns the settlement transaction ids.
+     */
+    public static class Settle extends FlowLogic<List<SecureHash>> {
+
+        private final List<Obligation> obligations;
+        private final int chunkSize;
+
+        public Settle(List<Obligation> obligations, int chunkSize) {
+            this.obligations = obligations;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        @Suspendable
+        public List<SecureHash> call() throws FlowException {
+            Set<Issued<Currency>> tokens = new LinkedHashSet<>();
+            for (Obligation obligation : obligations) {
+                tokens.add(obligation.token);
+            }
+
+            Map<SecureHash, String> outcomes = new HashMap<>();
+            List<SecureHash> txIds = new ArrayList<>();
+
+            for (Issued<Currency> token : tokens) {
+                txIds.addAll(settle(token, outcomes));
+            }
+
+            confirm(outcomes);
+
+            return txIds;
+        }
+
+        @Suspendable
+        private List<SecureHash> settle(Issued<Currency> token, Map<SecureHash, String> outcomes) {
+            Map<Party, Long> net = new LinkedHashMap<>();
+            for (Obligation obligation : obligations) {
+                if (obligation.token.equals(token)) {
+                    net.merge(obligation.receiver, obligation.quantity, Long::sum);
+                }
+            }
+
+            Map<Party, Integer> positions = new HashMap<>();
+            List<BatchPaymentFlow.Payment> payments = new ArrayList<>();
+            net.forEach((receiver, quantity) -> {
+                positions.put(receiver, payments.size());
+                payments.add(new BatchPaymentFlow.Payment(receiver, quantity));
+            });
+
+            List<BatchPaymentFlow.ChunkResult> chunks;
+            try {
+                chunks = subFlow(new BatchPaymentFlow(token, payments, chunkSize));
+            } catch (FlowException e) {
+                release(token);
+                for (Obligation obligation : obligations) {
+                    if (obligation.token.equals(token)) {
+                        outcomes.put(obligation.ticket, "failed: " + e.getMessage());
+                    }
+                }
+                return Collections.emptyList();
+            }
+
+            // Each ticket gets the outcome of the chunk that paid its receiver.
+            for (Obligation obligation : obligations) {
+                if (obligation.token.equals(token)) {
+                    BatchPaymentFlow.ChunkResult chunk = chunks.get(positions.get(obligation.receiver) / chunkSize);
+                    outcomes.put(obligation.ticket, outcome(chunk));
+                }
+            }
+            release(token);
+
+            List<SecureHash> txIds = new ArrayList<>();
+            for (BatchPaymentFlow.ChunkResult chunk : chunks) {
+                if (chunk.isPaid()) {
+                    txIds.add(chunk.getTxId());
+                }
+            }
+
+            return txIds;
+        }
+
+        private static String outcome(BatchPaymentFlow.ChunkResult chunk) {
+            if (!chunk.isPaid()) {
+                return "failed: " + chunk.getError();
+            }
+            return chunk.getWarning() == null ? chunk.getTxId().toString() : chunk.getTxId() + " (" + chunk.getWarning() + ")";
+        }
+
+        private void release(Issued<Currency> token) {
+            LiquidityLedger ledger = NodeServices.get(getServiceHub(), LiquidityLedger.class);
+
+            for (Obligation obligation : obligations) {
+                if (obligation.token.equals(token) && obligation.reservation != null) {
+                    ledger.release(obligation.reservation);
+                }
+            }
+        }
+
+        @Suspendable
+        private void confirm(Map<SecureHash, String> outcomes) throws FlowException {
+            for (Map.Entry<Party, List<Confirmation>> entry : byPayer(obligations, outcomes).entrySet()) {
+                subFlow(new Confirm(entry.getKey(), entry.getValue()));
+            }
+        }
+    }
+
+    /**
+     * Tells the payers of a batch that could not be settled that their tickets failed. Its liquidity reservations are
+     * released by whoever gives up on the batch.
+     */
+    public static class Fail extends FlowLogic<Void> {
+
+        private final List<Obligation> obligations;
+        private final String reason;
+
+        public Fail(List<Obligation> obligations, String reason) {
+            this.obligations = obligations;
+            this.reason = reason;
+        }
+
+        @Override
+        @Suspendable
+        public Void call() throws FlowException {
+            Map<SecureHash, String> outcomes = new HashMap<>();
+            for (Obligation obligation : obligations) {
+                outcomes.put(obligation.ticket, "failed: " + reason);
+            }
+
+            for (Map.Entry<Party, List<Confirmation>> entry : byPayer(obligations, outcomes).entrySet()) {
+                subFlow(new Confirm(entry.getKey(), entry.getValue()));
+            }
+
+            return null;
+        }
+    }
+
+    private static Map<Party, List<Confirmation>> byPayer(List<Obligation> obligations, Map<SecureHash, String> outcomes) {
+        Map<Party, List<Confirmation>> byPayer = new LinkedHashMap<>();
+        for (Obligation obligation : obligations) {
+            byPayer.computeIfAbsent(obligation.payer, payer -> new ArrayList<>())
+                    .add(new Confirmation(obligation.ticket, outcomes.get(obligation.ticket)));
+        }
+
+        return byPayer;
+    }
+
+    public static class Confirm extends FlowLogic<Void> {
+
+        private final Party payer;
+        private final List<Confirmation> confirmations;
+
+        public Confirm(Party payer, List<Confirmation> confirmations) {
+            this.payer = payer;
+            this.confirmations = confirmations;
+        }
+
+        @Override
+        @Suspendable
+        public Void call() throws FlowException {
+            send(payer, confirmations);
+            return null;
+        }
+    }
+
+    /**
+     * Records the outcomes a trader sends for the payer's tickets. Confirmations from a node that does not advertise
+     * the FX trader service are refused, so no other node can mark a payer's tickets settled.
+     */
+    public static class Recorder extends FlowLogic<Void> {
+
+        private final Party otherParty;
+
+        public Recorder(Party otherParty) {
+            this.otherParty = otherParty;
+        }
+
+        @Override
+        @Suspendable
+        public Void call() throws FlowException {
+            if (!NodeServices.isTrader(getServiceHub(), otherParty)) {
+                throw new FlowException(otherParty.getName() + " is not an FX trader and cannot confirm netted payouts");
+            }
+
+            List<Confirmation> confirmations = receive(List.class, otherParty).unwrap(list -> {
+                List<Confirmation> checked = new ArrayList<>();
+                for (Object item : list) {
+                    if (!(item instanceof Confirmation)) {
+                        throw new FlowException("Unexpected confirmation " + item);
+                    }
+                    checked.add((Confirmation) item);
+                }
+                return checked;
+            });
+
+            for (Confirmation confirmation : confirmations) {
+                getServiceHub().getVaultService().addNoteToTransaction(confirmation.ticket, confirmation.outcome);
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * Reads the outcomes recorded for a ticket on this node.
+     */
+    public static class Lookup extends FlowLogic<List<String>> {
+
+        private final SecureHash ticket;
+
+        public Lookup(SecureHash ticket) {
+            this.ticket = ticket;
+        }
+
+        @Override
+        @Suspendable
+        public List<String> call() throws FlowException {
+            List<String> outcomes = new ArrayList<>();
+            getServiceHub().getVaultService().getTransactionNotes(ticket).forEach(outcomes::add);
+            return outcomes;
+        }
+    }
+
+    @CordaSerializable
+    public static class Obligation {
+        private final SecureHash ticket;
+        private final Party payer;
+        private final Party receiver;
+        private final Issued<Currency> token;
+        private final long quantity;
+        private final SecureHash reservation;
+
+        public Obligation(SecureHash ticket, Party payer, Party receiver, Issued<Currency> token, long quantity, SecureHash reservation) {
+            this.ticket = ticket;
+            this.payer = payer;
+            this.receiver = receiver;
+            this.token = token;
+            this.quantity = quantity;
+            this.reservation = reservation;
+        }
+
+        public SecureHash getTicket() {
+            return ticket;
+        }
+
+        public Party getPayer() {
+            return payer;
+        }
+
+        public Party getReceiver() {
+            return receiver;
+        }
+
+        public Issued<Currency> getToken() {
+            return token;
+        }
+
+        public long getQuantity() {
+            return quantity;
+        }
+
+        /**
+         * The liquidity reserved for the payout, or null if there is none.
+         */
+        public SecureHash getReservation() {
+            return reservation;
+        }
+    }
+
+    @CordaSerializable
+    public static class Confirmation {
+        private final SecureHash ticket;
+        private final String outcome;
+
+        public Confirmation(SecureHash ticket, String outcome) {
+            this.ticket = ticket;
+            this.outcome = outcome;
+        }
+    }
+}
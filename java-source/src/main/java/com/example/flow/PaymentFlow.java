@@ -0,0 +1,43 @@
+package com.example.flow;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.example.service.CashPool;
+import net.corda.core.contracts.Amount;
+import net.corda.core.contracts.Issued;
+import net.corda.core.crypto.Party;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+
+import java.util.ArrayList;
+import java.util.Currency;
+
+/**
+ * Pays one recipient, picking the cash through the node's {@link CashPool}. Use this instead of
+ * {@code CashPaymentFlow}, whose coin selection cannot see the pool's claims and so races concurrent payments and the
+ * pool's rebalancing. Returns the payment's transaction id.
+ */
+public class PaymentFlow extends FlowLogic<SecureHash> {
+
+    private final Amount<Issued<Currency>> amount;
+    private final Party recipient;
+
+    public PaymentFlow(Amount<Issued<Currency>> amount, Party recipient) {
+        this.amount = amount;
+        this.recipient = recipient;
+    }
+
+    @Override
+    @Suspendable
+    public SecureHash call() throws FlowException {
+        ArrayList<BatchPaymentFlow.Payment> payment = new ArrayList<>();
+        payment.add(new BatchPaymentFlow.Payment(recipient, amount.getQuantity()));
+
+        BatchPaymentFlow.ChunkResult result = subFlow(new BatchPaymentFlow(amount.getToken(), payment, 1)).get(0);
+        if (!result.isPaid()) {
+            throw new FlowException(result.getError());
+        }
+
+        return result.getTxId();
+    }
+}
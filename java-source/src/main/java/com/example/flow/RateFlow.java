@@ -0,0 +1,56 @@
+package com.example.flow;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.example.models.CurrencyRate;
+import com.example.service.NodeServices;
+import com.example.service.RateBookService;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.node.ServiceHub;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Flows the web API starts over RPC to read and write the node's {@link RateBookService}.
+ */
+public class RateFlow {
+
+    public static class Update extends FlowLogic<Set<CurrencyRate>> {
+
+        private final List<CurrencyRate> rates;
+
+        public Update(List<CurrencyRate> rates) {
+            this.rates = rates;
+        }
+
+        @Override
+        @Suspendable
+        public Set<CurrencyRate> call() throws FlowException {
+            RateBookService rateBook = rateBook(getServiceHub());
+
+            rateBook.putAll(rates);
+
+            return rateBook.getAll();
+        }
+    }
+
+    public static class Query extends FlowLogic<Set<CurrencyRate>> {
+
+        @Override
+        @Suspendable
+        public Set<CurrencyRate> call() throws FlowException {
+            return rateBook(getServiceHub()).getAll();
+        }
+    }
+
+    /**
+     * The node's rate book. Only the first call on a node does any work, seeding the book from legacy notes; after
+     * that it is a plain lookup.
+     */
+    static RateBookService rateBook(ServiceHub services) {
+        RateBookService rateBook = NodeServices.get(services, RateBookService.class);
+        rateBook.migrateLegacyNotes(services.getVaultService());
+        return rateBook;
+    }
+}
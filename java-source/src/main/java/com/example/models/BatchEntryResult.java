@@ -0,0 +1,52 @@
+package com.example.models;
+
+/**
+ * Outcome of one entry of a batch request, reported in the same order as the request.
+ */
+public class BatchEntryResult {
+
+    private final int index;
+    private final String flowId;
+    private final FlowStatus.State state;
+    private final String result;
+    private final String error;
+
+    public BatchEntryResult(int index, String flowId, FlowStatus.State state, String result, String error) {
+        this.index = index;
+        this.flowId = flowId;
+        this.state = state;
+        this.result = result;
+        this.error = error;
+    }
+
+    public static BatchEntryResult of(int index, FlowStatus status) {
+        return new BatchEntryResult(index, status.getId(), status.getState(), status.getResult(), status.getError());
+    }
+
+    public static BatchEntryResult rejected(int index, String error) {
+        return new BatchEntryResult(index, null, FlowStatus.State.FAILED, null, error);
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * The id to look the flow up under {@code flows/{id}}, or null if it was never started.
+     */
+    public String getFlowId() {
+        return flowId;
+    }
+
+    public FlowStatus.State getState() {
+        return state;
+    }
+
+    public String getResult() {
+        return result;
+    }
+
+    public String getError() {
+        return error;
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.models;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import net.corda.core.serialization.CordaSerializable;
+
+/**
+ * Size of the checkpoints a node holds for its flows in flight, as measured by
+ * {@link com.example.service.CheckpointMeter}.
+ */
+@CordaSerializable
+public class CheckpointStats {
+    @JsonProperty
+    private final long checkpoints;
+    @JsonProperty
+    private final long totalBytes;
+    @JsonProperty
+    private final long meanBytes;
+    @JsonProperty
+    private final long maxBytes;
+
+    public CheckpointStats(long checkpoints, long totalBytes, long meanBytes, long maxBytes) {
+        this.checkpoints = checkpoints;
+        this.totalBytes = totalBytes;
+        this.meanBytes = meanBytes;
+        this.maxBytes = maxBytes;
+    }
+
+    public long getCheckpoints() {
+        return checkpoints;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public long getMeanBytes() {
+        return meanBytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+}
@@ -2,11 +2,13 @@ package com.example.models;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import net.corda.core.serialization.CordaSerializable;
 
 /**
  * Created by evilkid on 4/18/17.
  */
 @JsonDeserialize
+@CordaSerializable
 public class CurrencyRate {
     @JsonProperty
     private String from;
@@ -26,7 +28,7 @@ public class CurrencyRate {
     }
 
     public String getFrom() {
-        return from.toUpperCase();
+        return from == null ? null : from.toUpperCase();
     }
 
     public void setFrom(String from) {
@@ -34,7 +36,7 @@ public class CurrencyRate {
     }
 
     public String getTo() {
-        return to.toUpperCase();
+        return to == null ? null : to.toUpperCase();
     }
 
     public void setTo(String to) {
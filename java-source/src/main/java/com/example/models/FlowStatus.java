@@ -0,0 +1,91 @@
+package com.example.models;
+
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.transactions.SignedTransaction;
+
+/**
+ * Status of a flow started through the web API, as reported by the flow status resource.
+ */
+public class FlowStatus {
+
+    public enum State {
+        RUNNING, COMPLETED, FAILED
+    }
+
+    private final String id;
+    private final String operation;
+    private final long startedAt;
+
+    private volatile State state = State.RUNNING;
+    private volatile String progress;
+    private volatile String result;
+    private volatile String error;
+    private volatile Long completedAt;
+
+    public FlowStatus(String id, String operation) {
+        this.id = id;
+        this.operation = operation;
+        this.startedAt = System.currentTimeMillis();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public String getProgress() {
+        return progress;
+    }
+
+    /**
+     * The id of the resulting transaction, or the flow's result rendered as a string.
+     */
+    public String getResult() {
+        return result;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public Long getCompletedAt() {
+        return completedAt;
+    }
+
+    public boolean isDone() {
+        return state != State.RUNNING;
+    }
+
+    public void setProgress(String progress) {
+        this.progress = progress;
+    }
+
+    public void complete(Object value) {
+        if (value instanceof SignedTransaction) {
+            result = ((SignedTransaction) value).getId().toString();
+        } else if (value instanceof SecureHash) {
+            result = value.toString();
+        } else {
+            result = String.valueOf(value);
+        }
+        completedAt = System.currentTimeMillis();
+        state = State.COMPLETED;
+    }
+
+    public void fail(Throwable t) {
+        error = t.getMessage() == null ? t.getClass().getSimpleName() : t.getMessage();
+        completedAt = System.currentTimeMillis();
+        state = State.FAILED;
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.models;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+
+/**
+ * One entry of a batch issuance request.
+ */
+@JsonDeserialize
+public class IssueRequest {
+    @JsonProperty
+    private String peer;
+    @JsonProperty
+    private long amount;
+    @JsonProperty
+    private String currency;
+
+    public IssueRequest() {
+
+    }
+
+    public IssueRequest(String peer, long amount, String currency) {
+        this.peer = peer;
+        this.amount = amount;
+        this.currency = currency;
+    }
+
+    public String getPeer() {
+        return peer;
+    }
+
+    public void setPeer(String peer) {
+        this.peer = peer;
+    }
+
+    public long getAmount() {
+        return amount;
+    }
+
+    public void setAmount(long amount) {
+        this.amount = amount;
+    }
+
+    public String getCurrency() {
+        return currency;
+    }
+
+    public void setCurrency(String currency) {
+        this.currency = currency;
+    }
+}
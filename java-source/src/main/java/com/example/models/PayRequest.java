@@ -0,0 +1,40 @@
+package com.example.models;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+
+/**
+ * One recipient of a batch payment.
+ */
+@JsonDeserialize
+public class PayRequest {
+    @JsonProperty
+    private String peer;
+    @JsonProperty
+    private long amount;
+
+    public PayRequest() {
+
+    }
+
+    public PayRequest(String peer, long amount) {
+        this.peer = peer;
+        this.amount = amount;
+    }
+
+    public String getPeer() {
+        return peer;
+    }
+
+    public void setPeer(String peer) {
+        this.peer = peer;
+    }
+
+    public long getAmount() {
+        return amount;
+    }
+
+    public void setAmount(long amount) {
+        this.amount = amount;
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.models;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import net.corda.core.serialization.CordaSerializable;
+
+/**
+ * Latency of one stage of the exchange flows on one node, as recorded by {@link com.example.service.StageMetrics}.
+ * Times are in milliseconds and cover successful runs only.
+ */
+@CordaSerializable
+public class StageLatency {
+    @JsonProperty
+    private final String stage;
+    @JsonProperty
+    private final long count;
+    @JsonProperty
+    private final long failures;
+    @JsonProperty
+    private final double meanMillis;
+    @JsonProperty
+    private final double p50Millis;
+    @JsonProperty
+    private final double p99Millis;
+    @JsonProperty
+    private final double maxMillis;
+
+    public StageLatency(String stage, long count, long failures, double meanMillis, double p50Millis, double p99Millis, double maxMillis) {
+        this.stage = stage;
+        this.count = count;
+        this.failures = failures;
+        this.meanMillis = meanMillis;
+        this.p50Millis = p50Millis;
+        this.p99Millis = p99Millis;
+        this.maxMillis = maxMillis;
+    }
+
+    public String getStage() {
+        return stage;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getFailures() {
+        return failures;
+    }
+
+    public double getMeanMillis() {
+        return meanMillis;
+    }
+
+    public double getP50Millis() {
+        return p50Millis;
+    }
+
+    public double getP99Millis() {
+        return p99Millis;
+    }
+
+    public double getMaxMillis() {
+        return maxMillis;
+    }
+}
@@ -1,12 +1,34 @@
 package com.example.plugin;
 
+import com.example.api.ApiMetrics;
 import com.example.api.ExampleApi;
+import com.example.flow.BatchPaymentFlow;
 import com.example.flow.ExampleFlow;
+import com.example.flow.ExitFlow;
+import com.example.flow.FxSwapFlow;
+import com.example.flow.LiquidityFlow;
+import com.example.flow.MetricsFlow;
+import com.example.flow.NettingFlow;
+import com.example.flow.PaymentFlow;
+import com.example.flow.RateFlow;
+import com.example.models.CheckpointStats;
+import com.example.models.CurrencyRate;
+import com.example.models.StageLatency;
+import com.example.service.CashPool;
+import com.example.service.CurrencyDirectory;
+import com.example.service.FeeRedemptions;
+import com.example.service.LiquidityLedger;
+import com.example.service.NettingEngine;
 import com.example.service.ExampleService;
+import com.example.service.RateBookService;
+import com.example.service.RateTickIngestor;
+import com.example.service.StageMetrics;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import net.corda.core.contracts.Amount;
+import net.corda.core.contracts.Issued;
 import net.corda.core.crypto.Party;
+import net.corda.core.crypto.SecureHash;
 import net.corda.core.messaging.CordaRPCOps;
 import net.corda.core.node.CordaPluginRegistry;
 import net.corda.core.node.PluginServiceHub;
@@ -21,9 +43,9 @@ import java.util.function.Function;
 
 public class ExamplePlugin extends CordaPluginRegistry {
     /**
-     * A list of classes that expose web APIs.
+     * A list of classes that expose web APIs, and the JAX-RS providers registered with them.
      */
-    private final List<Function<CordaRPCOps, ?>> webApis = Collections.singletonList(ExampleApi::new);
+    private final List<Function<CordaRPCOps, ?>> webApis = Arrays.asList(ExampleApi::new, ApiMetrics::of);
 
     /**
      * A list of flows required for this CorDapp. Any flow which is invoked from from the web API needs to be
@@ -38,21 +60,55 @@ public class ExamplePlugin extends CordaPluginRegistry {
      * This map also acts as a white list. If a flow is invoked via the API and not registered correctly
      * here, then the flow state machine will _not_ invoke the flow. Instead, an exception will be raised.
      */
-    private final Map<String, Set<String>> requiredFlows = ImmutableMap.of(
-            IssuerFlow.IssuanceRequester.class.getName(),
-            new HashSet<>(Arrays.asList(
-                    AbstractCashFlow.class.getName(),
-                    Party.class.getName(),
-                    Amount.class.getName(),
-                    OpaqueBytes.class.getName()
-            )),
-            ExampleFlow.MasterFxFlow.class.getName(),
-            new HashSet<>(Arrays.asList(
-                    Party.class.getName(),
-                    Party.class.getName(),
-                    Amount.class.getName())
-            )
-    );
+    private final Map<String, Set<String>> requiredFlows = ImmutableMap.<String, Set<String>>builder()
+            .put(IssuerFlow.IssuanceRequester.class.getName(),
+                    new HashSet<>(Arrays.asList(
+                            AbstractCashFlow.class.getName(),
+                            Party.class.getName(),
+                            Amount.class.getName(),
+                            OpaqueBytes.class.getName()
+                    )))
+            .put(ExampleFlow.MasterFxFlow.class.getName(),
+                    new HashSet<>(Arrays.asList(
+                            Party.class.getName(),
+                            Party.class.getName(),
+                            Amount.class.getName(),
+                            Currency.class.getName())
+                    ))
+            .put(FxSwapFlow.Initiator.class.getName(),
+                    new HashSet<>(Arrays.asList(
+                            Party.class.getName(),
+                            Party.class.getName(),
+                            Amount.class.getName(),
+                            Currency.class.getName())
+                    ))
+            .put(BatchPaymentFlow.class.getName(),
+                    new HashSet<>(Arrays.asList(
+                            Issued.class.getName(),
+                            ArrayList.class.getName(),
+                            Integer.class.getName())
+                    ))
+            .put(PaymentFlow.class.getName(),
+                    new HashSet<>(Arrays.asList(
+                            Amount.class.getName(),
+                            Party.class.getName())
+                    ))
+            .put(ExitFlow.class.getName(),
+                    new HashSet<>(Arrays.asList(
+                            Amount.class.getName(),
+                            OpaqueBytes.class.getName())
+                    ))
+            .put(RateFlow.Update.class.getName(),
+                    Collections.singleton(ArrayList.class.getName()))
+            .put(RateFlow.Query.class.getName(),
+                    Collections.emptySet())
+            .put(MetricsFlow.Checkpoints.class.getName(),
+                    Collections.emptySet())
+            .put(MetricsFlow.Stages.class.getName(),
+                    Collections.emptySet())
+            .put(NettingFlow.Lookup.class.getName(),
+                    Collections.singleton(SecureHash.SHA256.class.getName()))
+            .build();
 
     /**
      * A list of long lived services to be hosted within the node. Typically you would use these to register flow
@@ -60,7 +116,18 @@ public class ExamplePlugin extends CordaPluginRegistry {
      * flow. See the [ExampleService.Service] class for an implementation.
      */
 
-    private final List<Function<PluginServiceHub, ?>> servicePlugins = ImmutableList.of(IssuerFlow.Issuer.Service::new, ExampleService::new);
+    private final List<Function<PluginServiceHub, ?>> servicePlugins = ImmutableList.of(
+            IssuerFlow.Issuer.Service::new,
+            ExampleService::new,
+            StageMetrics::new,
+            CashPool::new,
+            LiquidityLedger::new,
+            CurrencyDirectory::new,
+            FeeRedemptions::new,
+            RateBookService::new,
+            RateTickIngestor::new,
+            NettingEngine::new
+    );
 
     /**
      * A list of directories in the resources directory that will be served by Jetty under /web.
@@ -99,6 +166,15 @@ public class ExamplePlugin extends CordaPluginRegistry {
         custom.addToWhitelist(FlowSessionException.class);
         custom.addToWhitelist(List.class);
         custom.addToWhitelist(ArrayList.class);
+        custom.addToWhitelist(HashSet.class);
+        custom.addToWhitelist(CurrencyRate.class);
+        custom.addToWhitelist(BatchPaymentFlow.Payment.class);
+        custom.addToWhitelist(BatchPaymentFlow.ChunkResult.class);
+        custom.addToWhitelist(CheckpointStats.class);
+        custom.addToWhitelist(StageLatency.class);
+        custom.addToWhitelist(NettingFlow.Obligation.class);
+        custom.addToWhitelist(NettingFlow.Confirmation.class);
+        custom.addToWhitelist(LiquidityFlow.Request.class);
 
 
         //java.util.LinkedHashMap$LinkedKeySet
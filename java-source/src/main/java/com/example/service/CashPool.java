@@ -0,0 +1,175 @@
+package com.example.service;
+
+import com.example.flow.CashPoolFlow;
+import com.google.common.util.concurrent.MoreExecutors;
+import net.corda.contracts.asset.Cash;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.Issued;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.crypto.CompositeKey;
+import net.corda.core.node.PluginServiceHub;
+import net.corda.core.node.services.Vault;
+import net.corda.node.services.api.ServiceHubInternal;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Lets concurrent flows on this node spend cash without picking the same states.
+ * <p>
+ * {@code CashSpends} claims every state it selects here, and skips states another flow has claimed. A claim ends when
+ * the state is consumed, when the claiming flow releases it after a failure, or after {@code fx.cashPool.claimTtlMillis}
+ * (60000 by default) in case the flow died without releasing it.
+ * <p>
+ * Claims only help if there are enough states to go round, so with {@code fx.cashPool.splits} set above 1 the pool also
+ * keeps each currency split into about that many similar-sized states. Whenever cash moves in or out of the vault it
+ * runs a {@link CashPoolFlow.Rebalance} in the background, which breaks up any state worth two or more shares of the
+ * balance. Only one rebalance runs at a time; changes that arrive during a run trigger one more.
+ * <p>
+ * The pool also keeps the node's own unconsumed cash indexed by issued currency, loaded from the vault once when the
+ * node starts and then kept up to date from vault updates, so picking cash never scans the whole vault.
+ */
+public class CashPool {
+
+    private final ServiceHubInternal services;
+    private final int splits = Integer.getInteger("fx.cashPool.splits", 0);
+    private final long claimTtlMillis = Long.getLong("fx.cashPool.claimTtlMillis", 60_000L);
+    private final Map<StateRef, Long> claims = new ConcurrentHashMap<>();
+    private final Map<Issued<Currency>, Map<StateRef, StateAndRef<Cash.State>>> owned = new ConcurrentHashMap<>();
+    private final AtomicBoolean rebalancing = new AtomicBoolean();
+    private final AtomicBoolean stale = new AtomicBoolean();
+    private final ExecutorService rebalancer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "cash-pool");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public CashPool(PluginServiceHub services) {
+        this.services = (ServiceHubInternal) services;
+
+        services.getVaultService().getUpdates().subscribe(this::onUpdate);
+        // Plugin services are built inside the node's start-up transaction, before any flow runs.
+        for (StateAndRef<ContractState> stateAndRef : services.getVaultService().getCurrentVault().getStates()) {
+            index(stateAndRef);
+        }
+        NodeServices.register(services, CashPool.class, this);
+    }
+
+    /**
+     * The number of states each currency is kept split into, or 0 or 1 if the pool does not split.
+     */
+    public int getSplits() {
+        return splits;
+    }
+
+    /**
+     * All unconsumed cash of {@code token} owned by this node, claimed or not.
+     */
+    public List<StateAndRef<Cash.State>> owned(Issued<Currency> token) {
+        Map<StateRef, StateAndRef<Cash.State>> states = owned.get(token);
+        return states == null ? new ArrayList<>() : new ArrayList<>(states.values());
+    }
+
+    /**
+     * The issued currencies this node holds cash in.
+     */
+    public Set<Issued<Currency>> ownedTokens() {
+        Set<Issued<Currency>> tokens = new LinkedHashSet<>();
+        owned.forEach((token, states) -> {
+            if (!states.isEmpty()) {
+                tokens.add(token);
+            }
+        });
+        return tokens;
+    }
+
+    /**
+     * Claims a state for the calling flow. Returns false if another flow holds an unexpired claim on it.
+     */
+    public boolean claim(StateRef ref) {
+        long now = System.currentTimeMillis();
+        Long claimedAt = claims.putIfAbsent(ref, now);
+
+        if (claimedAt == null) {
+            return true;
+        }
+
+        return now - claimedAt > claimTtlMillis && claims.replace(ref, claimedAt, now);
+    }
+
+    /**
+     * Gives up claims on states that will not be spent after all.
+     */
+    public void release(Collection<StateRef> refs) {
+        refs.forEach(claims::remove);
+    }
+
+    private void onUpdate(Vault.Update update) {
+        boolean cashMoved = false;
+
+        for (StateAndRef<ContractState> consumed : update.getConsumed()) {
+            claims.remove(consumed.getRef());
+            cashMoved |= consumed.getState().getData() instanceof Cash.State;
+            unindex(consumed);
+        }
+        for (StateAndRef<ContractState> produced : update.getProduced()) {
+            cashMoved |= produced.getState().getData() instanceof Cash.State;
+            index(produced);
+        }
+
+        if (cashMoved && splits > 1) {
+            stale.set(true);
+            // Vault updates are published from inside the node's transaction, so start the flow from our own thread.
+            rebalancer.execute(this::rebalance);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void index(StateAndRef<ContractState> stateAndRef) {
+        if (!(stateAndRef.getState().getData() instanceof Cash.State)) {
+            return;
+        }
+
+        CompositeKey me = services.getMyInfo().getLegalIdentity().getOwningKey();
+        Cash.State cash = (Cash.State) stateAndRef.getState().getData();
+
+        if (cash.getOwner().equals(me)) {
+            owned.computeIfAbsent(cash.getAmount().getToken(), token -> new ConcurrentHashMap<>())
+                    .put(stateAndRef.getRef(), (StateAndRef<Cash.State>) (StateAndRef<?>) stateAndRef);
+        }
+    }
+
+    private void unindex(StateAndRef<ContractState> stateAndRef) {
+        if (!(stateAndRef.getState().getData() instanceof Cash.State)) {
+            return;
+        }
+
+        Cash.State cash = (Cash.State) stateAndRef.getState().getData();
+        Map<StateRef, StateAndRef<Cash.State>> states = owned.get(cash.getAmount().getToken());
+
+        if (states != null) {
+            states.remove(stateAndRef.getRef());
+        }
+    }
+
+    private void rebalance() {
+        if (!stale.get() || !rebalancing.compareAndSet(false, true)) {
+            return;
+        }
+        stale.set(false);
+
+        try {
+            services.startFlow(new CashPoolFlow.Rebalance()).getResultFuture().addListener(() -> {
+                rebalancing.set(false);
+                rebalancer.execute(this::rebalance);
+            }, MoreExecutors.directExecutor());
+        } catch (RuntimeException e) {
+            rebalancing.set(false);
+            System.out.println("Could not start cash pool rebalance: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.service;
+
+import com.example.models.CheckpointStats;
+import net.corda.node.services.persistence.DBCheckpointStorage;
+
+/**
+ * Measures the checkpoints the node has actually stored for its flows in flight.
+ * <p>
+ * Reads every checkpoint in the node's checkpoint storage and reports how many there are and how large they are, fiber
+ * and all, as written at each flow's last suspension. Flows that have finished have no checkpoint, so the numbers
+ * describe the load at the moment of reading; read them during a run to see what in-flight flows cost. Each reading
+ * loads every stored checkpoint, so it is only taken on request, and must run inside the node's database transaction,
+ * e.g. from a flow.
+ */
+public final class CheckpointMeter {
+
+    private CheckpointMeter() {
+    }
+
+    public static CheckpointStats measure() {
+        long[] totals = new long[3];
+
+        new DBCheckpointStorage().forEach(checkpoint -> {
+            long bytes = checkpoint.getSerializedFiber().getSize();
+            totals[0]++;
+            totals[1] += bytes;
+            totals[2] = Math.max(totals[2], bytes);
+            return true;
+        });
+
+        return new CheckpointStats(totals[0], totals[1], totals[0] == 0 ? 0 : totals[1] / totals[0], totals[2]);
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.service;
+
+import net.corda.core.crypto.Party;
+import net.corda.core.node.NodeInfo;
+import net.corda.core.node.PluginServiceHub;
+import net.corda.core.node.ServiceEntry;
+import net.corda.core.node.services.NetworkMapCache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Currency;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Which currencies each node accepts, taken from the {@code main.currency.*} services it advertises, and which it
+ * issues, taken from its {@code corda.issuer.*} services.
+ * <p>
+ * Built from the node's network map cache and refreshed on every network map change, so exchange flows can find the
+ * receiver's currency locally instead of asking the receiver over the network, and the trader can tell cash from a
+ * recognised issuer from cash anyone could have issued.
+ */
+public class CurrencyDirectory {
+
+    public static final String CURRENCY_SERVICE_PREFIX = "main.currency.";
+    public static final String ISSUER_SERVICE_PREFIX = "corda.issuer.";
+
+    private final Map<String, List<Currency>> accepted = new ConcurrentHashMap<>();
+    private final Map<String, Issuer> issuers = new ConcurrentHashMap<>();
+
+    public CurrencyDirectory(PluginServiceHub services) {
+        NetworkMapCache networkMap = services.getNetworkMapCache();
+
+        networkMap.getChanged().subscribe(this::apply);
+        networkMap.getPartyNodes().forEach(this::put);
+        put(services.getMyInfo());
+
+        NodeServices.register(services, CurrencyDirectory.class, this);
+    }
+
+    /**
+     * The currencies the named node advertises, empty if it advertises none or is not known.
+     */
+    public List<Currency> acceptedBy(String legalName) {
+        return accepted.getOrDefault(legalName, Collections.emptyList());
+    }
+
+    /**
+     * Whether {@code party} advertises itself as an issuer of {@code currency}.
+     */
+    public boolean issues(Party party, Currency currency) {
+        Issuer issuer = issuers.get(party.getName());
+        return issuer != null && issuer.party.equals(party) && issuer.currencies.contains(currency);
+    }
+
+    public static List<Currency> advertisedCurrencies(NodeInfo nodeInfo) {
+        return advertised(nodeInfo, CURRENCY_SERVICE_PREFIX);
+    }
+
+    private static List<Currency> advertised(NodeInfo nodeInfo, String prefix) {
+        List<Currency> currencies = new ArrayList<>();
+
+        for (ServiceEntry serviceEntry : nodeInfo.getAdvertisedServices()) {
+            String id = serviceEntry.getInfo().getType().getId();
+
+            if (id.startsWith(prefix)) {
+                try {
+                    currencies.add(Currency.getInstance(id.substring(prefix.length())));
+                } catch (IllegalArgumentException e) {
+                    // Not an ISO currency code; ignore it.
+                }
+            }
+        }
+
+        return currencies;
+    }
+
+    private void apply(NetworkMapCache.MapChange change) {
+        if (change.getType() == NetworkMapCache.MapChangeType.Removed) {
+            accepted.remove(change.getNode().getLegalIdentity().getName());
+            issuers.remove(change.getNode().getLegalIdentity().getName());
+        } else {
+            put(change.getNode());
+        }
+    }
+
+    private void put(NodeInfo nodeInfo) {
+        List<Currency> currencies = advertisedCurrencies(nodeInfo);
+        String name = nodeInfo.getLegalIdentity().getName();
+
+        if (currencies.isEmpty()) {
+            accepted.remove(name);
+        } else {
+            accepted.put(name, Collections.unmodifiableList(currencies));
+        }
+
+        List<Currency> issued = advertised(nodeInfo, ISSUER_SERVICE_PREFIX);
+        if (issued.isEmpty()) {
+            issuers.remove(name);
+        } else {
+            issuers.put(name, new Issuer(nodeInfo.getLegalIdentity(), issued));
+        }
+    }
+
+    private static final class Issuer {
+        private final Party party;
+        private final List<Currency> currencies;
+
+        private Issuer(Party party, List<Currency> currencies) {
+            this.party = party;
+            this.currencies = currencies;
+        }
+    }
+}
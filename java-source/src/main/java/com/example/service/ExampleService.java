@@ -1,6 +1,9 @@
 package com.example.service;
 
 import com.example.flow.ExampleFlow;
+import com.example.flow.FxSwapFlow;
+import com.example.flow.LiquidityFlow;
+import com.example.flow.NettingFlow;
 import kotlin.jvm.JvmClassMappingKt;
 import net.corda.core.node.PluginServiceHub;
 
@@ -13,5 +16,8 @@ public class ExampleService {
         System.out.println("Registering...");
         services.registerFlowInitiator(JvmClassMappingKt.getKotlinClass(ExampleFlow.MasterFxFlow.class), ExampleFlow.CurrencyResponder::new);
         services.registerFlowInitiator(JvmClassMappingKt.getKotlinClass(ExampleFlow.ExchangeInitiator.class), ExampleFlow.ExchangeResponder::new);
+        services.registerFlowInitiator(JvmClassMappingKt.getKotlinClass(FxSwapFlow.Initiator.class), FxSwapFlow.Responder::new);
+        services.registerFlowInitiator(JvmClassMappingKt.getKotlinClass(LiquidityFlow.Reserve.class), LiquidityFlow.Reserver::new);
+        services.registerFlowInitiator(JvmClassMappingKt.getKotlinClass(NettingFlow.Confirm.class), NettingFlow.Recorder::new);
     }
 }
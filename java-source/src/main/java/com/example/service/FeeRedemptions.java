@@ -0,0 +1,63 @@
+package com.example.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.node.PluginServiceHub;
+import net.corda.core.node.services.VaultService;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fee payments the trader has already exchanged, so that one payment cannot buy more than one payout.
+ * <p>
+ * A redeemed payment is marked with a note on its transaction, which survives restarts. Notes only become visible
+ * when the redeeming flow's next checkpoint commits, so an exchange also claims the payment here first, which turns
+ * away a concurrent exchange quoting the same payment. Claims are dropped after an hour, long after the note has been
+ * committed.
+ */
+public class FeeRedemptions {
+
+    private static final String NOTE = "fx fee redeemed";
+    private static final long CLAIM_TTL_MINUTES = 60;
+
+    private final Cache<SecureHash, Boolean> claims = CacheBuilder.newBuilder()
+            .expireAfterWrite(CLAIM_TTL_MINUTES, TimeUnit.MINUTES)
+            .build();
+
+    public FeeRedemptions(PluginServiceHub services) {
+        NodeServices.register(services, FeeRedemptions.class, this);
+    }
+
+    /**
+     * Claims a fee payment for one exchange. Returns false if another exchange holds it or it was already redeemed.
+     * Must be called from a flow, as it reads the payment's notes.
+     */
+    public boolean claim(VaultService vault, SecureHash feeTx) {
+        if (claims.asMap().putIfAbsent(feeTx, Boolean.TRUE) != null) {
+            return false;
+        }
+
+        for (String note : vault.getTransactionNotes(feeTx)) {
+            if (note.startsWith(NOTE)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Marks a claimed fee payment as spent on {@code exchange}, for good.
+     */
+    public void redeem(VaultService vault, SecureHash feeTx, String exchange) {
+        vault.addNoteToTransaction(feeTx, NOTE + " for " + exchange);
+    }
+
+    /**
+     * Gives back a claim on a fee payment whose exchange failed before it was redeemed.
+     */
+    public void release(SecureHash feeTx) {
+        claims.invalidate(feeTx);
+    }
+}
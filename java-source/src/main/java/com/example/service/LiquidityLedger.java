@@ -0,0 +1,152 @@
+package com.example.service;
+
+import net.corda.contracts.asset.Cash;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.Issued;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.crypto.CompositeKey;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.node.PluginServiceHub;
+import net.corda.core.node.services.Vault;
+
+import java.util.Currency;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The trader's outgoing liquidity that is already promised to exchanges in flight, per issued currency.
+ * <p>
+ * An exchange reserves its payout before the payer pays anything, and the reservation is refused if the trader's
+ * balance minus what is already reserved does not cover it. Reserving is a compare-and-set on one counter per issued
+ * currency, so concurrent exchanges never block each other. Balances are counters too: loaded from the vault once when
+ * the node starts and then moved by vault updates, so reserving never reads the vault. A reservation is released when its payout settles or fails, or after
+ * {@code fx.liquidity.ttlMillis} (30000 by default) if the exchange is abandoned before it reaches the trader.
+ */
+public class LiquidityLedger {
+
+    private static final long SWEEP_MILLIS = 1000;
+
+    private final long ttlMillis = Long.getLong("fx.liquidity.ttlMillis", 30_000L);
+    private final Map<Issued<Currency>, AtomicLong> balances = new ConcurrentHashMap<>();
+    private final Map<Issued<Currency>, AtomicLong> reserved = new ConcurrentHashMap<>();
+    private final Map<SecureHash, Reservation> reservations = new ConcurrentHashMap<>();
+    private final CompositeKey me;
+
+    public LiquidityLedger(PluginServiceHub services) {
+        this.me = services.getMyInfo().getLegalIdentity().getOwningKey();
+
+        services.getVaultService().getUpdates().subscribe(this::onUpdate);
+        // Plugin services are built inside the node's start-up transaction, before any flow runs.
+        for (StateAndRef<ContractState> stateAndRef : services.getVaultService().getCurrentVault().getStates()) {
+            count(stateAndRef, 1);
+        }
+
+        ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "liquidity-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(this::expire, SWEEP_MILLIS, SWEEP_MILLIS, TimeUnit.MILLISECONDS);
+
+        NodeServices.register(services, LiquidityLedger.class, this);
+    }
+
+    /**
+     * Reserves {@code quantity} of {@code token} against this node's balance of it. Returns the reservation's id, or
+     * null if the unreserved balance is short.
+     */
+    public SecureHash reserve(Issued<Currency> token, long quantity) {
+        AtomicLong counter = reserved.computeIfAbsent(token, t -> new AtomicLong());
+        long current;
+
+        do {
+            current = counter.get();
+            if (current + quantity > getBalance(token)) {
+                return null;
+            }
+        } while (!counter.compareAndSet(current, current + quantity));
+
+        SecureHash id = SecureHash.randomSHA256();
+        reservations.put(id, new Reservation(token, quantity, System.currentTimeMillis() + ttlMillis));
+
+        return id;
+    }
+
+    /**
+     * Releases a reservation. Releasing one that was already released or has expired does nothing.
+     */
+    public void release(SecureHash id) {
+        Reservation reservation = reservations.remove(id);
+
+        if (reservation != null) {
+            reserved.get(reservation.token).addAndGet(-reservation.quantity);
+        }
+    }
+
+    /**
+     * Keeps a reservation alive past its TTL, for payouts that are queued rather than paid straight away.
+     */
+    public void hold(SecureHash id) {
+        reservations.computeIfPresent(id, (key, reservation) -> new Reservation(reservation.token, reservation.quantity, Long.MAX_VALUE));
+    }
+
+    /**
+     * This node's unconsumed cash of {@code token}, reserved or not.
+     */
+    public long getBalance(Issued<Currency> token) {
+        AtomicLong counter = balances.get(token);
+        return counter == null ? 0 : counter.get();
+    }
+
+    public long getReserved(Issued<Currency> token) {
+        AtomicLong counter = reserved.get(token);
+        return counter == null ? 0 : counter.get();
+    }
+
+    private void onUpdate(Vault.Update update) {
+        for (StateAndRef<ContractState> consumed : update.getConsumed()) {
+            count(consumed, -1);
+        }
+        for (StateAndRef<ContractState> produced : update.getProduced()) {
+            count(produced, 1);
+        }
+    }
+
+    private void count(StateAndRef<ContractState> stateAndRef, int sign) {
+        if (!(stateAndRef.getState().getData() instanceof Cash.State)) {
+            return;
+        }
+
+        Cash.State cash = (Cash.State) stateAndRef.getState().getData();
+        if (cash.getOwner().equals(me)) {
+            balances.computeIfAbsent(cash.getAmount().getToken(), t -> new AtomicLong())
+                    .addAndGet(sign * cash.getAmount().getQuantity());
+        }
+    }
+
+    private void expire() {
+        long now = System.currentTimeMillis();
+
+        reservations.forEach((id, reservation) -> {
+            if (reservation.expiresAt < now) {
+                release(id);
+            }
+        });
+    }
+
+    private static final class Reservation {
+        private final Issued<Currency> token;
+        private final long quantity;
+        private final long expiresAt;
+
+        private Reservation(Issued<Currency> token, long quantity, long expiresAt) {
+            this.token = token;
+            this.quantity = quantity;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package com.example.service;
+
+import com.example.flow.NettingFlow;
+import net.corda.core.contracts.Amount;
+import net.corda.core.contracts.Issued;
+import net.corda.core.contracts.PartyAndReference;
+import net.corda.core.crypto.CompositeKey;
+import net.corda.core.crypto.Party;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.node.PluginServiceHub;
+import net.corda.core.serialization.OpaqueBytes;
+import net.corda.node.services.api.ServiceHubInternal;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the trader's exchange payouts and settles them in netted batches.
+ * <p>
+ * With netting on, {@code ExchangeResponder} hands its payout to {@link #submit} and answers the payer with a ticket
+ * straight away. Every window, or as soon as a batch fills up, the pending payouts are netted into one amount per
+ * receiver and currency and settled by a {@link NettingFlow.Settle}, which pays each currency through
+ * {@code BatchPaymentFlow} and then tells every payer which transaction settled each of its tickets. If the
+ * settlement cannot even be started, the batch's reservations are released and its payers are told it failed.
+ * <p>
+ * Pending payouts are also appended to a journal file in the node's directory, so a restart settles them instead of
+ * losing them; they are reserved again when the journal is read back. Once a batch is handed to a settlement flow, which
+ * the node checkpoints, the journal is rewritten without it. Tickets are derived from the fee payment, so an exchange
+ * that is replayed after a crash queues its payout once.
+ * <p>
+ * Configured with system properties on the trader node:
+ * <ul>
+ * <li>{@code fx.netting.windowMillis}: how long payouts are collected. Netting is off when unset or 0.</li>
+ * <li>{@code fx.netting.maxBatch}: settle early once this many payouts are pending, 1000 by default.</li>
+ * <li>{@code fx.netting.chunkSize}: receivers per settlement transaction, 50 by default.</li>
+ * <li>{@code fx.netting.dir}: where the journal is kept, the working directory by default.</li>
+ * </ul>
+ */
+public class NettingEngine {
+
+    private final ServiceHubInternal services;
+    private final long windowMillis = Long.getLong("fx.netting.windowMillis", 0L);
+    private final int maxBatch = Integer.getInteger("fx.netting.maxBatch", 1000);
+    private final int chunkSize = Integer.getInteger("fx.netting.chunkSize", 50);
+    private final boolean enabled;
+    private final ScheduledExecutorService settler;
+    private final Path journal;
+
+    private final Object lock = new Object();
+    private List<NettingFlow.Obligation> pending = new ArrayList<>();
+    private final Set<SecureHash> pendingTickets = new HashSet<>();
+    private BufferedWriter journalWriter;
+
+    public NettingEngine(PluginServiceHub services) {
+        this.services = (ServiceHubInternal) services;
+        this.enabled = windowMillis > 0 && NodeServices.isTrader(services);
+        this.journal = Paths.get(System.getProperty("fx.netting.dir", "."),
+                "netting-" + services.getMyInfo().getLegalIdentity().getName() + ".journal");
+
+        if (enabled) {
+            recover();
+
+            settler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "fx-netting");
+                thread.setDaemon(true);
+                return thread;
+            });
+            settler.scheduleWithFixedDelay(this::settle, windowMillis, windowMillis, TimeUnit.MILLISECONDS);
+            System.out.println("Netting exchange payouts every " + windowMillis + "ms");
+        } else {
+            settler = null;
+        }
+
+        NodeServices.register(services, NettingEngine.class, this);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Queues the payout bought by fee payment {@code paidFees} for the next settlement and returns the ticket its
+     * confirmation will be recorded under. Submitting the same fee payment again while its payout is pending returns the
+     * same ticket and queues nothing. The payout's liquidity reservation, if any, is released once it has settled or
+     * failed.
+     */
+    public SecureHash submit(SecureHash paidFees, Party payer, Party receiver, Amount<Issued<Currency>> payout, SecureHash reservation) {
+        if (!enabled) {
+            throw new IllegalStateException("Netting is off");
+        }
+
+        SecureHash ticket = SecureHash.sha256("fx-netting:" + paidFees);
+        boolean full;
+
+        synchronized (lock) {
+            if (!pendingTickets.add(ticket)) {
+                return ticket;
+            }
+
+            NettingFlow.Obligation obligation = new NettingFlow.Obligation(ticket, payer, receiver, payout.getToken(), payout.getQuantity(), reservation);
+            try {
+                append(obligation);
+            } catch (IOException e) {
+                pendingTickets.remove(ticket);
+                throw new UncheckedIOException("Could not journal netted payout " + ticket, e);
+            }
+            pending.add(obligation);
+            full = pending.size() >= maxBatch;
+        }
+
+        if (full) {
+            settler.execute(this::settle);
+        }
+
+        return ticket;
+    }
+
+    private void settle() {
+        List<NettingFlow.Obligation> batch;
+
+        synchronized (lock) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            pending = new ArrayList<>();
+            batch.forEach(obligation -> pendingTickets.remove(obligation.getTicket()));
+        }
+
+        try {
+            services.startFlow(new NettingFlow.Settle(batch, chunkSize));
+        } catch (RuntimeException e) {
+            System.out.println("Could not settle " + batch.size() + " netted payouts: " + e.getMessage());
+            fail(batch, e);
+        }
+
+        // The flow now owns the batch, whether it settles or reports it failed.
+        synchronized (lock) {
+            try {
+                rewriteJournal();
+            } catch (IOException e) {
+                System.out.println("Could not compact netting journal " + journal + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void fail(List<NettingFlow.Obligation> batch, RuntimeException cause) {
+        LiquidityLedger ledger = NodeServices.get(services, LiquidityLedger.class);
+        for (NettingFlow.Obligation obligation : batch) {
+            if (obligation.getReservation() != null) {
+                ledger.release(obligation.getReservation());
+            }
+        }
+
+        try {
+            services.startFlow(new NettingFlow.Fail(batch, "settlement could not start: " + cause.getMessage()));
+        } catch (RuntimeException e) {
+            System.out.println("Could not report " + batch.size() + " failed netted payouts: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Queues the payouts a previous run journaled but never handed to a settlement, reserving their liquidity again.
+     */
+    private void recover() {
+        if (Files.exists(journal)) {
+            LiquidityLedger ledger = NodeServices.get(services, LiquidityLedger.class);
+
+            try {
+                for (String line : Files.readAllLines(journal, StandardCharsets.UTF_8)) {
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+
+                    NettingFlow.Obligation stored = parse(line);
+                    if (pendingTickets.add(stored.getTicket())) {
+                        SecureHash reservation = ledger.reserve(stored.getToken(), stored.getQuantity());
+                        if (reservation != null) {
+                            ledger.hold(reservation);
+                        }
+                        pending.add(new NettingFlow.Obligation(stored.getTicket(), stored.getPayer(), stored.getReceiver(),
+                                stored.getToken(), stored.getQuantity(), reservation));
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                throw new IllegalStateException("Could not read netting journal " + journal, e);
+            }
+
+            if (!pending.isEmpty()) {
+                System.out.println("Recovered " + pending.size() + " netted payouts from " + journal);
+            }
+        }
+
+        try {
+            rewriteJournal();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write netting journal " + journal, e);
+        }
+    }
+
+    private void append(NettingFlow.Obligation obligation) throws IOException {
+        journalWriter.write(format(obligation));
+        journalWriter.newLine();
+        journalWriter.flush();
+    }
+
+    /**
+     * Replaces the journal with just the pending payouts and reopens it for appending. Called with the lock held.
+     */
+    private void rewriteJournal() throws IOException {
+        if (journalWriter != null) {
+            journalWriter.close();
+        }
+
+        Path tmp = journal.resolveSibling(journal.getFileName() + ".tmp");
+        List<String> lines = new ArrayList<>(pending.size());
+        for (NettingFlow.Obligation obligation : pending) {
+            lines.add(format(obligation));
+        }
+        Files.write(tmp, lines, StandardCharsets.UTF_8);
+        Files.move(tmp, journal, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        journalWriter = Files.newBufferedWriter(journal, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * One tab-separated line per payout: ticket, payer, receiver, issuer (each as name and key), issuer reference,
+     * currency and quantity. Reservations are not kept; they do not survive a restart.
+     */
+    private static String format(NettingFlow.Obligation obligation) {
+        PartyAndReference issuer = obligation.getToken().getIssuer();
+
+        return String.join("\t",
+                obligation.getTicket().toString(),
+                obligation.getPayer().getName(), obligation.getPayer().getOwningKey().toBase58String(),
+                obligation.getReceiver().getName(), obligation.getReceiver().getOwningKey().toBase58String(),
+                issuer.getParty().getName(), issuer.getParty().getOwningKey().toBase58String(),
+                Base64.getEncoder().encodeToString(issuer.getReference().getBytes()),
+                obligation.getToken().getProduct().getCurrencyCode(),
+                Long.toString(obligation.getQuantity()));
+    }
+
+    private static NettingFlow.Obligation parse(String line) {
+        String[] fields = line.split("\t");
+        if (fields.length != 10) {
+            throw new IllegalArgumentException("Malformed netting journal line: " + line);
+        }
+
+        Party issuer = party(fields[5], fields[6]);
+        Issued<Currency> token = new Issued<>(
+                new PartyAndReference(issuer, new OpaqueBytes(Base64.getDecoder().decode(fields[7]))),
+                Currency.getInstance(fields[8]));
+
+        return new NettingFlow.Obligation(SecureHash.parse(fields[0]), party(fields[1], fields[2]), party(fields[3], fields[4]),
+                token, Long.parseLong(fields[9]), null);
+    }
+
+    private static Party party(String name, String key) {
+        return new Party(name, CompositeKey.Companion.parseFromBase58(key));
+    }
+}
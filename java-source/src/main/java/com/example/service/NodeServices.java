@@ -0,0 +1,72 @@
+package com.example.service;
+
+import net.corda.core.crypto.Party;
+import net.corda.core.node.NodeInfo;
+import net.corda.core.node.ServiceEntry;
+import net.corda.core.node.ServiceHub;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Lets flows find the long lived services this CorDapp installs on their node.
+ * <p>
+ * Flows only get a {@link ServiceHub}, so services register themselves here under the node's legal name when the
+ * plugin creates them. Keying by node keeps several in-process nodes (e.g. a MockNetwork) apart.
+ * <p>
+ * Flows must look services up when they need them and never hold them across a suspension point: services are not
+ * checkpointable.
+ */
+public final class NodeServices {
+
+    private static final String TRADER_SERVICE = "tn.fxtrader";
+
+    private static final Map<String, Map<Class<?>, Object>> SERVICES = new ConcurrentHashMap<>();
+
+    private NodeServices() {
+    }
+
+    public static <T> void register(ServiceHub services, Class<T> type, T service) {
+        SERVICES.computeIfAbsent(nodeName(services), name -> new ConcurrentHashMap<>()).put(type, service);
+    }
+
+    public static <T> T get(ServiceHub services, Class<T> type) {
+        Map<Class<?>, Object> nodeServices = SERVICES.get(nodeName(services));
+        Object service = nodeServices == null ? null : nodeServices.get(type);
+
+        if (service == null) {
+            throw new IllegalStateException(type.getSimpleName() + " is not installed on this node");
+        }
+
+        return type.cast(service);
+    }
+
+    /**
+     * Whether this node advertises the FX trader service.
+     */
+    public static boolean isTrader(ServiceHub services) {
+        return advertisesTrader(services.getMyInfo());
+    }
+
+    /**
+     * Whether {@code party} is a node on the network map that advertises the FX trader service.
+     */
+    public static boolean isTrader(ServiceHub services, Party party) {
+        NodeInfo nodeInfo = services.getNetworkMapCache().getNodeByLegalIdentityKey(party.getOwningKey());
+        return nodeInfo != null && nodeInfo.getLegalIdentity().equals(party) && advertisesTrader(nodeInfo);
+    }
+
+    private static boolean advertisesTrader(NodeInfo nodeInfo) {
+        for (ServiceEntry serviceEntry : nodeInfo.getAdvertisedServices()) {
+            if (serviceEntry.getInfo().getType().getId().equals(TRADER_SERVICE)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static String nodeName(ServiceHub services) {
+        return services.getMyInfo().getLegalIdentity().getName();
+    }
+}
@@ -0,0 +1,218 @@
+package com.example.service;
+
+import com.example.models.CurrencyRate;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.node.PluginServiceHub;
+import net.corda.core.node.services.VaultService;
+import net.corda.jackson.JacksonSupport;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The trader's FX rate book, keyed by currency pair.
+ * <p>
+ * Rates are held in memory and every write replaces a single book file in the node's directory, so reads and writes
+ * cost the same however many updates came before. The directory can be moved with the {@code fx.rateBook.dir}
+ * system property.
+ * <p>
+ * Every write also publishes a fresh {@link RateMatrix}, which is what the exchange flows price from. Pairs that were
+ * not booked are triangulated through the base currency, USD unless {@code fx.baseCurrency} says otherwise. Live ticks can
+ * be published to the matrix straight away and persisted later in one coalesced {@link #flush()}.
+ */
+public class RateBookService {
+
+    /**
+     * Rate tables used to be stored as JSON transaction notes under this hash; they are read once to seed a new book.
+     */
+    public static final SecureHash LEGACY_NOTES_KEY = SecureHash.sha256("rates");
+
+    private final ObjectMapper json = JacksonSupport.createNonRpcMapper();
+    private final Map<String, CurrencyRate> rates = new ConcurrentHashMap<>();
+    private final Currency baseCurrency = Currency.getInstance(System.getProperty("fx.baseCurrency", "USD"));
+    private final AtomicReference<RateMatrix> matrix = new AtomicReference<>(RateMatrix.empty(baseCurrency));
+    private final Object matrixLock = new Object();
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private final Path file;
+
+    private volatile boolean migrated;
+
+    public RateBookService(PluginServiceHub services) {
+        String nodeName = services.getMyInfo().getLegalIdentity().getName();
+        this.file = Paths.get(System.getProperty("fx.rateBook.dir", "."), "rate-book-" + nodeName + ".json");
+
+        load();
+        NodeServices.register(services, RateBookService.class, this);
+    }
+
+    public CurrencyRate get(String from, String to) {
+        return rates.get(key(from, to));
+    }
+
+    /**
+     * The latest published snapshot of the book. Safe to call from any thread without locking.
+     */
+    public RateMatrix matrix() {
+        return matrix.get();
+    }
+
+    public Set<CurrencyRate> getAll() {
+        return new HashSet<>(rates.values());
+    }
+
+    /**
+     * Applies a batch of rates as one write: the book file is replaced once and readers see either none or all of
+     * the batch. The file is written first, so a batch that cannot be saved is not priced from either.
+     */
+    public synchronized void putAll(Collection<CurrencyRate> batch) {
+        boolean wasDirty = dirty.getAndSet(false);
+        Map<String, CurrencyRate> next;
+        synchronized (matrixLock) {
+            next = new HashMap<>(rates);
+        }
+        batch.forEach(rate -> next.put(key(rate.getFrom(), rate.getTo()), rate));
+
+        try {
+            write(next.values());
+        } catch (UncheckedIOException e) {
+            if (wasDirty) {
+                dirty.set(true);
+            }
+            throw e;
+        }
+
+        // Live ticks published while the file was written stay in memory and are saved by the next flush.
+        synchronized (matrixLock) {
+            batch.forEach(rate -> rates.put(key(rate.getFrom(), rate.getTo()), rate));
+            publish();
+        }
+    }
+
+    /**
+     * Makes a rate visible to pricing immediately without writing the book. The change is persisted by the next
+     * {@link #flush()}.
+     */
+    public void publishLive(CurrencyRate rate) {
+        synchronized (matrixLock) {
+            rates.put(key(rate.getFrom(), rate.getTo()), rate);
+            matrix.set(matrix.get().with(rate, rates.values()));
+        }
+        dirty.set(true);
+    }
+
+    /**
+     * Writes the book if anything was published live since the last write.
+     */
+    public synchronized void flush() {
+        if (dirty.get()) {
+            save();
+        }
+    }
+
+    /**
+     * Seeds an empty book from the newest rate table in the legacy transaction notes. This has to run inside a flow,
+     * where the vault is usable, so it is called lazily rather than from the constructor. Once it has run this is a
+     * single volatile read, so pricing never waits on the lock writers hold while they save the book.
+     */
+    public void migrateLegacyNotes(VaultService vault) {
+        if (!migrated) {
+            migrate(vault);
+        }
+    }
+
+    private synchronized void migrate(VaultService vault) {
+        if (migrated) {
+            return;
+        }
+
+        try {
+            if (rates.isEmpty()) {
+                seedFromLegacyNotes(vault);
+            }
+        } finally {
+            migrated = true;
+        }
+    }
+
+    private void seedFromLegacyNotes(VaultService vault) {
+        String latest = null;
+        for (String note : vault.getTransactionNotes(LEGACY_NOTES_KEY)) {
+            latest = note;
+        }
+
+        if (latest == null || latest.isEmpty()) {
+            return;
+        }
+
+        try {
+            Set<CurrencyRate> legacy = json.readValue(latest, new TypeReference<Set<CurrencyRate>>() {
+            });
+            legacy.forEach(rate -> rates.put(key(rate.getFrom(), rate.getTo()), rate));
+            save();
+            publish();
+        } catch (IOException e) {
+            System.out.println("Could not migrate legacy rate notes: " + e.getMessage());
+        }
+    }
+
+    private void load() {
+        if (!Files.exists(file)) {
+            return;
+        }
+
+        try {
+            List<CurrencyRate> stored = json.readValue(file.toFile(), new TypeReference<List<CurrencyRate>>() {
+            });
+            stored.forEach(rate -> rates.put(key(rate.getFrom(), rate.getTo()), rate));
+            migrated = true;
+            publish();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read rate book " + file, e);
+        }
+    }
+
+    private void save() {
+        dirty.set(false);
+
+        try {
+            write(rates.values());
+        } catch (UncheckedIOException e) {
+            dirty.set(true);
+            throw e;
+        }
+    }
+
+    /**
+     * Replaces the book file with {@code values}, through a temporary file so a failed write leaves the old book.
+     */
+    private void write(Collection<CurrencyRate> values) {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try {
+            json.writeValue(tmp.toFile(), new ArrayList<>(values));
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write rate book " + file, e);
+        }
+    }
+
+    private void publish() {
+        synchronized (matrixLock) {
+            matrix.set(RateMatrix.of(rates.values(), baseCurrency));
+        }
+    }
+
+    private static String key(String from, String to) {
+        return from.toUpperCase() + "/" + to.toUpperCase();
+    }
+}
@@ -0,0 +1,190 @@
+package com.example.service;
+
+import com.example.models.CurrencyRate;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.*;
+
+/**
+ * Immutable snapshot of the rate book as a square matrix of primitive rates, indexed by currency ordinal.
+ * <p>
+ * Readers never lock, allocate or parse: a lookup is two map reads for the ordinals and one array read. Writers build
+ * a whole new matrix and publish it by swapping a reference.
+ * <p>
+ * The matrix covers every pair, not just the ones in the book. A rate {@code r} means the trader pays out
+ * {@code 1 - r} units of the target currency per unit received, so rates compose through their factors
+ * {@code 1 - r}. Each currency's factor against the base currency comes from a booked base pair (or its inverse), and
+ * any pair that was not booked directly is triangulated through the base. Booked pairs always win over derived ones.
+ */
+public final class RateMatrix {
+
+    private final Map<Currency, Integer> ordinals;
+    private final int size;
+    private final Currency baseCurrency;
+    private final int base;
+
+    /** Rates as booked, NaN where a pair was not booked. */
+    private final float[] booked;
+    /** Factor from the base currency to each currency, NaN where unknown. */
+    private final double[] baseFactors;
+    /** Booked or triangulated rate for every pair, NaN where neither currency can be reached from the base. */
+    private final float[] rates;
+
+    private RateMatrix(Map<Currency, Integer> ordinals, Currency baseCurrency, float[] booked, double[] baseFactors, float[] rates) {
+        this.ordinals = ordinals;
+        this.size = ordinals.size();
+        this.baseCurrency = baseCurrency;
+        this.base = ordinals.get(baseCurrency);
+        this.booked = booked;
+        this.baseFactors = baseFactors;
+        this.rates = rates;
+    }
+
+    public static RateMatrix empty(Currency baseCurrency) {
+        return of(Collections.emptyList(), baseCurrency);
+    }
+
+    /**
+     * Builds the full pair table from scratch.
+     */
+    public static RateMatrix of(Collection<CurrencyRate> currencyRates, Currency baseCurrency) {
+        SortedMap<String, Currency> currencies = new TreeMap<>();
+        currencies.put(baseCurrency.getCurrencyCode(), baseCurrency);
+
+        for (CurrencyRate rate : currencyRates) {
+            Currency from = currency(rate.getFrom());
+            Currency to = currency(rate.getTo());
+
+            if (from != null && to != null) {
+                currencies.put(from.getCurrencyCode(), from);
+                currencies.put(to.getCurrencyCode(), to);
+            }
+        }
+
+        ImmutableMap.Builder<Currency, Integer> builder = ImmutableMap.builder();
+        int size = 0;
+        for (Currency currency : currencies.values()) {
+            builder.put(currency, size++);
+        }
+        Map<Currency, Integer> ordinals = builder.build();
+
+        float[] booked = new float[size * size];
+        Arrays.fill(booked, Float.NaN);
+
+        for (CurrencyRate rate : currencyRates) {
+            Integer from = ordinals.get(currency(rate.getFrom()));
+            Integer to = ordinals.get(currency(rate.getTo()));
+
+            if (from != null && to != null) {
+                booked[from * size + to] = rate.getRate();
+            }
+        }
+
+        RateMatrix matrix = new RateMatrix(ordinals, baseCurrency, booked, new double[size], new float[size * size]);
+
+        for (int i = 0; i < size; i++) {
+            matrix.baseFactors[i] = matrix.baseFactor(i);
+        }
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                matrix.rates[i * size + j] = matrix.resolve(i, j);
+            }
+        }
+
+        return matrix;
+    }
+
+    /**
+     * Returns a copy of this matrix with one booked rate replaced. When both currencies are already known only the
+     * affected cells are recomputed: one cell for a cross pair, or the row and column of the other currency when a
+     * base pair changes.
+     */
+    public RateMatrix with(CurrencyRate rate, Collection<CurrencyRate> allRates) {
+        Integer from = ordinal(currency(rate.getFrom()));
+        Integer to = ordinal(currency(rate.getTo()));
+
+        if (from == null || to == null) {
+            return of(allRates, baseCurrency);
+        }
+
+        RateMatrix matrix = new RateMatrix(ordinals, baseCurrency, booked.clone(), baseFactors.clone(), rates.clone());
+        matrix.booked[from * size + to] = rate.getRate();
+        matrix.rates[from * size + to] = matrix.resolve(from, to);
+
+        if (from == base || to == base) {
+            int other = from == base ? to : from;
+            matrix.baseFactors[other] = matrix.baseFactor(other);
+
+            for (int k = 0; k < size; k++) {
+                matrix.rates[other * size + k] = matrix.resolve(other, k);
+                matrix.rates[k * size + other] = matrix.resolve(k, other);
+            }
+        }
+
+        return matrix;
+    }
+
+    /**
+     * Returns the rate for the pair, or {@code Float.NaN} if it is neither booked nor derivable.
+     */
+    public float rate(Currency from, Currency to) {
+        Integer fromOrdinal = ordinals.get(from);
+        Integer toOrdinal = ordinals.get(to);
+
+        if (fromOrdinal == null || toOrdinal == null) {
+            return Float.NaN;
+        }
+
+        return rates[fromOrdinal * size + toOrdinal];
+    }
+
+    private float resolve(int from, int to) {
+        float direct = booked[from * size + to];
+
+        if (!Float.isNaN(direct)) {
+            return direct;
+        }
+        if (from == to) {
+            return 0;
+        }
+
+        double fromFactor = baseFactors[from];
+        double toFactor = baseFactors[to];
+
+        if (Double.isNaN(fromFactor) || Double.isNaN(toFactor) || fromFactor == 0) {
+            return Float.NaN;
+        }
+
+        return (float) (1 - toFactor / fromFactor);
+    }
+
+    private double baseFactor(int currency) {
+        if (currency == base) {
+            return 1;
+        }
+
+        float outward = booked[base * size + currency];
+        if (!Float.isNaN(outward)) {
+            return 1 - outward;
+        }
+
+        float inward = booked[currency * size + base];
+        if (!Float.isNaN(inward) && inward != 1) {
+            return 1 / (1 - (double) inward);
+        }
+
+        return Double.NaN;
+    }
+
+    private Integer ordinal(Currency currency) {
+        return currency == null ? null : ordinals.get(currency);
+    }
+
+    private static Currency currency(String code) {
+        try {
+            return Currency.getInstance(code);
+        } catch (IllegalArgumentException | NullPointerException e) {
+            return null;
+        }
+    }
+}
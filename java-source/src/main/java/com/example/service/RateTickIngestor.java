@@ -0,0 +1,187 @@
+package com.example.service;
+
+import com.example.models.CurrencyRate;
+import net.corda.core.node.PluginServiceHub;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Currency;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feeds live rate ticks into the trader's {@link RateBookService}.
+ * <p>
+ * Ticks are lines of the form {@code FROM TO RATE} (commas also work), read either from a local TCP port or by
+ * tailing a file. Each tick is published to the rate matrix as soon as it is read, so exchanges always price off the
+ * newest tick. Only the latest tick per pair is kept, and the book is persisted on an interval rather than per tick, so
+ * any number of ticks between two flushes costs one write.
+ * <p>
+ * Configured with system properties on the trader node:
+ * <ul>
+ * <li>{@code fx.ticks.source}: {@code tcp:<port>} or {@code file:<path>}. Ingestion is off when unset.</li>
+ * <li>{@code fx.ticks.flushMillis}: how often the book is persisted, 1000 by default.</li>
+ * </ul>
+ */
+public class RateTickIngestor {
+
+    private static final long TAIL_POLL_MILLIS = 50;
+    private static final int MAX_TAIL_CHUNK = 1 << 20;
+
+    private final RateBookService rateBook;
+
+    public RateTickIngestor(PluginServiceHub services) {
+        this.rateBook = NodeServices.get(services, RateBookService.class);
+
+        String source = System.getProperty("fx.ticks.source");
+        if (source == null || !NodeServices.isTrader(services)) {
+            return;
+        }
+
+        long flushMillis = Long.getLong("fx.ticks.flushMillis", 1000L);
+        ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(daemon("rate-tick-flush"));
+        flusher.scheduleWithFixedDelay(this::flush, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+
+        if (source.startsWith("tcp:")) {
+            int port = Integer.parseInt(source.substring("tcp:".length()));
+            daemon("rate-tick-listener").newThread(() -> listen(port)).start();
+        } else if (source.startsWith("file:")) {
+            String path = source.substring("file:".length());
+            daemon("rate-tick-tail").newThread(() -> tail(path)).start();
+        } else {
+            throw new IllegalArgumentException("fx.ticks.source must be tcp:<port> or file:<path>, was " + source);
+        }
+
+        System.out.println("Ingesting rate ticks from " + source);
+    }
+
+    /**
+     * Parses and applies one tick. Malformed lines are ignored.
+     */
+    public void onTick(String line) {
+        String[] parts = line.trim().split("[,\\s]+");
+        if (parts.length != 3) {
+            return;
+        }
+
+        CurrencyRate tick;
+        try {
+            Currency.getInstance(parts[0].toUpperCase());
+            Currency.getInstance(parts[1].toUpperCase());
+            tick = new CurrencyRate(parts[0], parts[1], Float.parseFloat(parts[2]));
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+
+        if (!Float.isFinite(tick.getRate())) {
+            return;
+        }
+
+        rateBook.publishLive(tick);
+    }
+
+    private void flush() {
+        try {
+            rateBook.flush();
+        } catch (RuntimeException e) {
+            System.out.println("Could not flush rate ticks: " + e.getMessage());
+        }
+    }
+
+    private void listen(int port) {
+        try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            while (!Thread.currentThread().isInterrupted()) {
+                Socket socket = server.accept();
+                daemon("rate-tick-connection").newThread(() -> read(socket)).start();
+            }
+        } catch (IOException e) {
+            System.out.println("Rate tick listener stopped: " + e.getMessage());
+        }
+    }
+
+    private void read(Socket socket) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                onTick(line);
+            }
+        } catch (IOException e) {
+            System.out.println("Rate tick connection closed: " + e.getMessage());
+        }
+    }
+
+    private void tail(String path) {
+        long position = 0;
+        // Set while skipping a line too long to be a tick, until its newline turns up.
+        boolean oversized = false;
+
+        while (!Thread.currentThread().isInterrupted()) {
+            try (RandomAccessFile file = new RandomAccessFile(path, "r")) {
+                if (file.length() < position) {
+                    // Truncated or rotated: start again from the top.
+                    position = 0;
+                    oversized = false;
+                }
+
+                byte[] chunk = new byte[(int) Math.min(file.length() - position, MAX_TAIL_CHUNK)];
+                file.seek(position);
+                file.readFully(chunk);
+
+                int start = 0;
+                if (oversized) {
+                    while (start < chunk.length && chunk[start] != '\n') {
+                        start++;
+                    }
+                    if (start < chunk.length) {
+                        start++;
+                        oversized = false;
+                    }
+                }
+
+                // Leave a trailing partial line for the next poll.
+                int end = chunk.length;
+                while (end > start && chunk[end - 1] != '\n') {
+                    end--;
+                }
+
+                if (oversized) {
+                    end = chunk.length;
+                } else if (end == 0 && chunk.length == MAX_TAIL_CHUNK) {
+                    // A whole chunk without a newline will never parse; drop it rather than read it forever.
+                    System.out.println("Skipping a rate tick line longer than " + MAX_TAIL_CHUNK + " bytes at " + position);
+                    end = chunk.length;
+                    oversized = true;
+                } else if (end > start) {
+                    for (String line : new String(chunk, start, end - start, StandardCharsets.UTF_8).split("\n")) {
+                        onTick(line);
+                    }
+                }
+                position += end;
+            } catch (IOException e) {
+                // The file may not exist yet; keep polling.
+            }
+
+            try {
+                Thread.sleep(TAIL_POLL_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
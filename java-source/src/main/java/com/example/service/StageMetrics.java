@@ -0,0 +1,85 @@
+package com.example.service;
+
+import com.example.models.StageLatency;
+import net.corda.core.node.PluginServiceHub;
+import net.corda.core.node.ServiceHub;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-stage latency of the exchange flows on this node, one {@link LatencyHistogram} per stage.
+ * <p>
+ * A flow takes {@code System.nanoTime()} when a stage starts and reports it with {@link #succeeded} or {@link #failed}
+ * when it ends. Stages are named {@code <flow>.<stage>}, e.g. {@code MasterFxFlow.payFees}. A stage that spans a node
+ * restart is measured from the restored checkpoint's clock and should be ignored.
+ */
+public class StageMetrics {
+
+    private final Map<String, LatencyHistogram> stages = new ConcurrentHashMap<>();
+
+    public StageMetrics(PluginServiceHub services) {
+        NodeServices.register(services, StageMetrics.class, this);
+    }
+
+    public static void succeeded(ServiceHub services, String stage, long startedNanos) {
+        NodeServices.get(services, StageMetrics.class).histogram(stage).record(System.nanoTime() - startedNanos);
+    }
+
+    public static void failed(ServiceHub services, String stage) {
+        NodeServices.get(services, StageMetrics.class).histogram(stage).fail();
+    }
+
+    public List<StageLatency> snapshot() {
+        List<StageLatency> snapshot = new ArrayList<>();
+
+        new TreeMap<>(stages).forEach((stage, histogram) -> {
+            long count = histogram.getCount();
+            snapshot.add(new StageLatency(
+                    stage,
+                    count,
+                    histogram.getFailures(),
+                    count == 0 ? 0 : LatencyHistogram.toMillis(histogram.getTotalNanos() / count),
+                    LatencyHistogram.toMillis(histogram.quantileNanos(0.5)),
+                    LatencyHistogram.toMillis(histogram.quantileNanos(0.99)),
+                    LatencyHistogram.toMillis(histogram.getMaxNanos())));
+        });
+
+        return snapshot;
+    }
+
+    private LatencyHistogram histogram(String stage) {
+        return stages.computeIfAbsent(stage, s -> new LatencyHistogram());
+    }
+
+    /**
+     * Times one stage at a time for a flow. Small enough to keep in a flow field across suspensions.
+     */
+    public static final class Timer {
+        private String stage;
+        private long startedNanos;
+
+        public void start(String stage) {
+            this.stage = stage;
+            this.startedNanos = System.nanoTime();
+        }
+
+        public void stop(ServiceHub services) {
+            succeeded(services, stage, startedNanos);
+            stage = null;
+        }
+
+        /**
+         * Counts a failure against the running stage, if there is one.
+         */
+        public void fail(ServiceHub services) {
+            if (stage != null) {
+                failed(services, stage);
+                stage = null;
+            }
+        }
+    }
+}
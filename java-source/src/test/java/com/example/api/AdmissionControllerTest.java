@@ -0,0 +1,108 @@
+package com.example.api;
+
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class AdmissionControllerTest {
+
+    private static final String[] PROPERTIES = {
+            "fx.admission.maxInFlight", "fx.admission.maxPerCaller", "fx.admission.maxQueue", "fx.admission.maxWaitMillis"
+    };
+
+    private AdmissionController admission;
+
+    @Before
+    public void before() {
+        System.setProperty("fx.admission.maxInFlight", "2");
+        System.setProperty("fx.admission.maxPerCaller", "1");
+        System.setProperty("fx.admission.maxQueue", "1");
+        System.setProperty("fx.admission.maxWaitMillis", "50");
+        admission = new AdmissionController();
+    }
+
+    @After
+    public void after() {
+        for (String property : PROPERTIES) {
+            System.clearProperty(property);
+        }
+    }
+
+    @Test
+    public void callerAtItsLimitIsTurnedAwayWith429() {
+        admission.acquire("pay", "a");
+
+        assertRejected(429, "exchange", "a");
+    }
+
+    @Test
+    public void operationAtCapacityIsTurnedAwayWith503() {
+        admission.acquire("pay", "a");
+        admission.acquire("pay", "b");
+
+        assertRejected(503, "pay", "c");
+        admission.acquire("exchange", "c");
+    }
+
+    @Test
+    public void releasingGivesBothSlotsBackOnce() {
+        AdmissionController.Permit permit = admission.acquire("pay", "a");
+        permit.release();
+        permit.release();
+
+        admission.acquire("pay", "a");
+        admission.acquire("pay", "b");
+        assertRejected(429, "pay", "a");
+        assertRejected(503, "pay", "c");
+    }
+
+    @Test
+    public void slotsAreHeldUntilTheFlowFinishes() {
+        SettableFuture<Object> flowResult = SettableFuture.create();
+        admission.acquire("pay", "a").releaseWhenDone(flowResult);
+
+        assertRejected(429, "pay", "a");
+
+        flowResult.set(null);
+        admission.acquire("pay", "a");
+    }
+
+    @Test
+    public void queuedRequestGetsAFreedSlot() throws Exception {
+        System.setProperty("fx.admission.maxWaitMillis", "5000");
+        admission = new AdmissionController();
+
+        admission.acquire("pay", "a");
+        AdmissionController.Permit second = admission.acquire("pay", "b");
+
+        Thread releaser = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                return;
+            }
+            second.release();
+        });
+        releaser.start();
+
+        admission.acquire("pay", "c");
+        releaser.join();
+    }
+
+    private void assertRejected(int status, String operation, String caller) {
+        try {
+            admission.acquire(operation, caller);
+            fail("Expected " + caller + " to be turned away from " + operation);
+        } catch (WebApplicationException e) {
+            assertEquals(status, e.getResponse().getStatus());
+            assertEquals("1", e.getResponse().getHeaderString(HttpHeaders.RETRY_AFTER));
+        }
+    }
+}
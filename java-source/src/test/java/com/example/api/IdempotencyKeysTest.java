@@ -0,0 +1,84 @@
+package com.example.api;
+
+import org.junit.Test;
+
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.WebApplicationException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class IdempotencyKeysTest {
+
+    private final IdempotencyKeys keys = new IdempotencyKeys();
+    private final AtomicInteger starts = new AtomicInteger();
+
+    @Test
+    public void repeatedKeyGetsTheOriginalBack() {
+        String first = keys.startOnce("10.0.0.1", "key", "POST pay", this::start);
+        String second = keys.startOnce("10.0.0.1", "key", "POST pay", this::start);
+
+        assertEquals("flow-1", first);
+        assertEquals("flow-1", second);
+        assertEquals(1, starts.get());
+    }
+
+    @Test
+    public void keysAreScopedToTheCaller() {
+        String mine = keys.startOnce("10.0.0.1", "key", "POST pay", this::start);
+        String theirs = keys.startOnce("10.0.0.2", "key", "POST pay", this::start);
+
+        assertEquals("flow-1", mine);
+        assertEquals("flow-2", theirs);
+    }
+
+    @Test
+    public void keyReusedForAnotherRequestIsRefused() {
+        keys.startOnce("10.0.0.1", "key", "POST pay/batch body abc", this::start);
+
+        try {
+            keys.startOnce("10.0.0.1", "key", "POST pay/batch body def", this::start);
+            fail("Expected a conflict");
+        } catch (WebApplicationException e) {
+            assertEquals(422, e.getResponse().getStatus());
+        }
+        assertEquals(1, starts.get());
+    }
+
+    @Test
+    public void failedStartLeavesNoEntry() {
+        try {
+            keys.startOnce("10.0.0.1", "key", "POST pay", () -> {
+                throw new IllegalStateException("turned away");
+            });
+            fail("Expected the start to fail");
+        } catch (IllegalStateException e) {
+            assertEquals("turned away", e.getMessage());
+        }
+
+        assertEquals("flow-1", keys.startOnce("10.0.0.1", "key", "POST pay", this::start));
+    }
+
+    @Test
+    public void malformedKeysAreRejected() {
+        StringBuilder tooLong = new StringBuilder();
+        for (int i = 0; i < 256; i++) {
+            tooLong.append('k');
+        }
+
+        for (String key : new String[]{"", "  ", tooLong.toString()}) {
+            try {
+                keys.startOnce("10.0.0.1", key, "POST pay", this::start);
+                fail("Expected " + key.length() + " characters to be rejected");
+            } catch (BadRequestException e) {
+                // Expected.
+            }
+        }
+        assertEquals(0, starts.get());
+    }
+
+    private String start() {
+        return "flow-" + starts.incrementAndGet();
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.api;
+
+import kotlin.Pair;
+import net.corda.core.contracts.Contract;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.StateRef;
+import net.corda.core.contracts.TransactionState;
+import net.corda.core.crypto.CompositeKey;
+import net.corda.core.crypto.CryptoUtilsKt;
+import net.corda.core.crypto.Party;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.node.services.Vault;
+import org.junit.Test;
+import rx.Observable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class VaultIndexTest {
+
+    private static final Party NOTARY = new Party("Notary", new CompositeKey.Leaf(CryptoUtilsKt.generateKeyPair().getPublic()));
+    private static final int OUTPUTS_PER_TX = 5;
+
+    @Test
+    public void pagesFollowArrivalOrderUntilTheLastOne() {
+        List<StateAndRef<ContractState>> states = states(250);
+        VaultIndex index = index(states);
+
+        VaultIndex.Page first = index.getPageAfter(-1, 100);
+        assertEquals(states.subList(0, 100), first.getStates());
+        assertEquals(Long.valueOf(99), first.getLastSequence());
+
+        VaultIndex.Page second = index.getPageAfter(first.getLastSequence(), 100);
+        assertEquals(states.subList(100, 200), second.getStates());
+        assertEquals(Long.valueOf(199), second.getLastSequence());
+
+        VaultIndex.Page last = index.getPageAfter(second.getLastSequence(), 100);
+        assertEquals(states.subList(200, 250), last.getStates());
+        assertNull(last.getLastSequence());
+    }
+
+    @Test
+    public void fullLastPageHasNoCursor() {
+        List<StateAndRef<ContractState>> states = states(200);
+        VaultIndex index = index(states);
+
+        VaultIndex.Page second = index.getPageAfter(index.getPageAfter(-1, 100).getLastSequence(), 100);
+
+        assertEquals(states.subList(100, 200), second.getStates());
+        assertNull(second.getLastSequence());
+    }
+
+    @Test
+    public void numberedPagesSkipWholePages() {
+        List<StateAndRef<ContractState>> states = states(250);
+        VaultIndex index = index(states);
+
+        assertEquals(states.subList(0, 100), index.getPage(1, 100).getStates());
+        assertEquals(states.subList(100, 200), index.getPage(2, 100).getStates());
+        assertEquals(states.subList(200, 250), index.getPage(3, 100).getStates());
+        assertTrue(index.getPage(4, 100).getStates().isEmpty());
+        assertNull(index.getPage(4, 100).getLastSequence());
+    }
+
+    @Test
+    public void lookupByTransactionReturnsItsFirstOutput() {
+        List<StateAndRef<ContractState>> states = states(10);
+        VaultIndex index = index(states);
+
+        assertEquals(states.get(OUTPUTS_PER_TX), index.getByTxHash(states.get(OUTPUTS_PER_TX + 2).getRef().getTxhash()));
+        assertNull(index.getByTxHash(SecureHash.randomSHA256()));
+    }
+
+    private static VaultIndex index(List<StateAndRef<ContractState>> states) {
+        return new VaultIndex(new Pair<>(states, Observable.<Vault.Update>empty()));
+    }
+
+    /**
+     * {@code count} states, {@link #OUTPUTS_PER_TX} to a transaction.
+     */
+    private static List<StateAndRef<ContractState>> states(int count) {
+        List<StateAndRef<ContractState>> states = new ArrayList<>(count);
+        SecureHash txHash = null;
+
+        for (int i = 0; i < count; i++) {
+            if (i % OUTPUTS_PER_TX == 0) {
+                txHash = SecureHash.randomSHA256();
+            }
+            states.add(new StateAndRef<>(new TransactionState<>(new TestState(), NOTARY, null), new StateRef(txHash, i % OUTPUTS_PER_TX)));
+        }
+
+        return states;
+    }
+
+    private static final class TestState implements ContractState {
+        @Override
+        public Contract getContract() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<CompositeKey> getParticipants() {
+            return Collections.emptyList();
+        }
+    }
+}
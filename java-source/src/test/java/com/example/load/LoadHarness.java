@@ -0,0 +1,406 @@
+package com.example.load;
+
+import com.example.flow.ExampleFlow;
+import com.example.flow.PaymentFlow;
+import com.example.models.CurrencyRate;
+import com.example.service.LatencyHistogram;
+import com.example.service.NodeServices;
+import com.example.service.RateBookService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import net.corda.core.contracts.Amount;
+import net.corda.core.contracts.ContractsDSL;
+import net.corda.core.contracts.Issued;
+import net.corda.core.contracts.PartyAndReference;
+import net.corda.core.crypto.Party;
+import net.corda.core.node.services.ServiceInfo;
+import net.corda.core.serialization.OpaqueBytes;
+import net.corda.flows.CashIssueFlow;
+import net.corda.flows.IssuerFlow;
+import net.corda.node.services.network.NetworkMapService;
+import net.corda.testing.node.MockNetwork;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives issue, pay and exchange flows against an in-process network and reports how they performed.
+ * <p>
+ * The {@code deployNodes} topology is built on a {@link MockNetwork} with a thread per node: Controller as network map
+ * and validating notary, NodeA (USD) and NodeB (EUR) as payers and receivers, and NodeC as issuer and FX trader. NodeC
+ * issues starting cash to everyone and books USD/EUR rates. Operations are then picked at random from the configured
+ * mix and run between NodeA and NodeB, in alternating directions, either at a fixed rate (open loop) or as fast as the
+ * concurrency limit allows (closed loop). In open loop latency is measured from when an operation was due, so time
+ * spent waiting for a slot counts against it.
+ * <p>
+ * Configured with system properties:
+ * <ul>
+ * <li>{@code fx.load.mix}: relative weights of the operations, {@code issue=1,pay=4,exchange=5} by default.</li>
+ * <li>{@code fx.load.rate}: operations started per second; 0, the default, runs closed loop.</li>
+ * <li>{@code fx.load.concurrency}: operations in flight at most, 32 by default.</li>
+ * <li>{@code fx.load.warmupSeconds}: load run before measuring starts, 10 by default.</li>
+ * <li>{@code fx.load.durationSeconds}: measured load, 60 by default.</li>
+ * <li>{@code fx.load.amount}: quantity moved per operation, 100 by default.</li>
+ * <li>{@code fx.load.seedAmount}: starting cash per node and currency, 100000000 by default.</li>
+ * <li>{@code fx.load.randomSeed}: seed for picking operations, 1 by default.</li>
+ * <li>{@code fx.load.report}: file to write the report to; standard output by default.</li>
+ * </ul>
+ * The report is JSON: per operation and in total, the started, succeeded and failed counts, throughput, latency
+ * percentiles in milliseconds and the most common failure reasons.
+ */
+public class LoadHarness {
+
+    private static final OpaqueBytes ISSUE_REF = OpaqueBytes.Companion.of((byte) 1);
+    private static final int TOP_ERRORS = 5;
+    private static final long DRAIN_MILLIS = 120_000;
+
+    private enum Operation {
+        ISSUE, PAY, EXCHANGE;
+
+        String label() {
+            return name().toLowerCase();
+        }
+    }
+
+    private final Map<Operation, Integer> mix = parseMix(System.getProperty("fx.load.mix", "issue=1,pay=4,exchange=5"));
+    private final double rate = Double.parseDouble(System.getProperty("fx.load.rate", "0"));
+    private final int concurrency = Integer.getInteger("fx.load.concurrency", 32);
+    private final long warmupSeconds = Long.getLong("fx.load.warmupSeconds", 10L);
+    private final long durationSeconds = Long.getLong("fx.load.durationSeconds", 60L);
+    private final long amount = Long.getLong("fx.load.amount", 100L);
+    private final long seedAmount = Long.getLong("fx.load.seedAmount", 100_000_000L);
+    private final Random random = new Random(Long.getLong("fx.load.randomSeed", 1L));
+
+    private final Map<Operation, Stats> stats = new EnumMap<>(Operation.class);
+    private final Stats total = new Stats();
+    private final Semaphore slots = new Semaphore(concurrency);
+
+    private MockNetwork network;
+    private MockNetwork.MockNode controller;
+    private MockNetwork.MockNode nodeA;
+    private MockNetwork.MockNode nodeB;
+    private MockNetwork.MockNode nodeC;
+    private Party trader;
+    private Issued<Currency> usd;
+
+    public static void main(String[] args) throws Exception {
+        LoadHarness harness = new LoadHarness();
+        String report;
+
+        try {
+            harness.startNetwork();
+            harness.seed();
+            report = harness.run();
+        } finally {
+            harness.stopNetwork();
+        }
+
+        String path = System.getProperty("fx.load.report");
+        if (path == null) {
+            System.out.println(report);
+        } else {
+            Files.write(new File(path).toPath(), report.getBytes("UTF-8"));
+            System.out.println("Load report written to " + path);
+        }
+
+        // Node threads are not all daemons.
+        System.exit(0);
+    }
+
+    private void startNetwork() throws Exception {
+        // Keep the trader's rate book out of the working directory.
+        if (System.getProperty("fx.rateBook.dir") == null) {
+            System.setProperty("fx.rateBook.dir", Files.createTempDirectory("fx-load").toString());
+        }
+
+        network = new MockNetwork(false, true, MockNetwork.DefaultFactory.INSTANCE);
+
+        controller = createNode(null, "Controller",
+                new ServiceInfo(NetworkMapService.Companion.getType(), null),
+                ServiceInfo.Companion.parse("corda.notary.validating"));
+        nodeA = createNode(controller, "NodeA", ServiceInfo.Companion.parse("main.currency.USD"));
+        nodeB = createNode(controller, "NodeB", ServiceInfo.Companion.parse("main.currency.EUR"));
+        nodeC = createNode(controller, "NodeC",
+                ServiceInfo.Companion.parse("corda.issuer.USD"),
+                ServiceInfo.Companion.parse("corda.issuer.EUR"),
+                ServiceInfo.Companion.parse("tn.fxtrader"));
+
+        Futures.allAsList(Arrays.asList(
+                nodeA.getNetworkMapRegistrationFuture(),
+                nodeB.getNetworkMapRegistrationFuture(),
+                nodeC.getNetworkMapRegistrationFuture())).get(60, TimeUnit.SECONDS);
+
+        trader = nodeC.getInfo().getLegalIdentity();
+        usd = new Issued<>(new PartyAndReference(trader, ISSUE_REF), ContractsDSL.USD);
+    }
+
+    private MockNetwork.MockNode createNode(MockNetwork.MockNode networkMap, String name, ServiceInfo... services) {
+        return network.createNode(
+                networkMap == null ? null : networkMap.getInfo().getAddress(),
+                -1,
+                MockNetwork.DefaultFactory.INSTANCE,
+                true,
+                name,
+                null,
+                // Fixed entropy so every run gets the same keys.
+                BigInteger.valueOf(name.hashCode() & Integer.MAX_VALUE),
+                services);
+    }
+
+    private void stopNetwork() {
+        if (network != null) {
+            network.stopNodes();
+        }
+    }
+
+    /**
+     * Gives NodeA and NodeB USD to spend and NodeC both currencies to pay exchanges out of, and books the rates.
+     */
+    private void seed() throws Exception {
+        Party notary = controller.getInfo().getNotaryIdentity();
+        List<ListenableFuture<?>> issued = new ArrayList<>();
+
+        for (MockNetwork.MockNode node : Arrays.asList(nodeA, nodeB, nodeC)) {
+            Party owner = node.getInfo().getLegalIdentity();
+            issued.add(nodeC.getServices().startFlow(new CashIssueFlow(new Amount<>(seedAmount, ContractsDSL.USD), ISSUE_REF, owner, notary)).getResultFuture());
+        }
+        issued.add(nodeC.getServices().startFlow(new CashIssueFlow(new Amount<>(seedAmount, ContractsDSL.EUR), ISSUE_REF, trader, notary)).getResultFuture());
+
+        Futures.allAsList(issued).get(120, TimeUnit.SECONDS);
+
+        NodeServices.get(nodeC.getServices(), RateBookService.class).putAll(Arrays.asList(
+                new CurrencyRate("USD", "EUR", 0.1f),
+                new CurrencyRate("EUR", "USD", 0.1f)));
+    }
+
+    private String run() throws Exception {
+        for (Operation operation : Operation.values()) {
+            stats.put(operation, new Stats());
+        }
+
+        long intervalNanos = rate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / rate) : 0;
+        long startedAt = System.nanoTime();
+        long measureFrom = startedAt + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long stopAt = measureFrom + TimeUnit.SECONDS.toNanos(durationSeconds);
+
+        for (int sequence = 0; ; sequence++) {
+            long due;
+
+            if (intervalNanos > 0) {
+                due = startedAt + sequence * intervalNanos;
+                if (due >= stopAt) {
+                    break;
+                }
+
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                slots.acquire();
+            } else {
+                slots.acquire();
+                due = System.nanoTime();
+                if (due >= stopAt) {
+                    slots.release();
+                    break;
+                }
+            }
+
+            launch(pick(), sequence, due, due >= measureFrom);
+        }
+
+        // Let the flows still in flight finish so that every measured operation is accounted for.
+        if (!slots.tryAcquire(concurrency, DRAIN_MILLIS, TimeUnit.MILLISECONDS)) {
+            System.err.println("Gave up waiting for " + (concurrency - slots.availablePermits()) + " operations");
+        }
+
+        return report(System.nanoTime() - measureFrom);
+    }
+
+    private void launch(Operation operation, int sequence, long due, boolean measured) {
+        Stats operationStats = stats.get(operation);
+        if (measured) {
+            operationStats.started.increment();
+            total.started.increment();
+        }
+
+        ListenableFuture<?> result;
+        try {
+            result = start(operation, sequence);
+        } catch (RuntimeException e) {
+            result = Futures.immediateFailedFuture(e);
+        }
+
+        Futures.addCallback(result, new FutureCallback<Object>() {
+            @Override
+            public void onSuccess(Object value) {
+                if (measured) {
+                    long nanos = System.nanoTime() - due;
+                    operationStats.latency.record(nanos);
+                    total.latency.record(nanos);
+                }
+                slots.release();
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                if (measured) {
+                    operationStats.fail(t);
+                    total.fail(t);
+                }
+                slots.release();
+            }
+        });
+    }
+
+    /**
+     * Starts one operation. Even sequence numbers go from NodeA to NodeB, odd ones the other way, so neither side
+     * runs out of cash.
+     */
+    private ListenableFuture<?> start(Operation operation, int sequence) {
+        MockNetwork.MockNode payer = sequence % 2 == 0 ? nodeA : nodeB;
+        MockNetwork.MockNode payee = payer == nodeA ? nodeB : nodeA;
+        Party payeeParty = payee.getInfo().getLegalIdentity();
+
+        switch (operation) {
+            case ISSUE:
+                return payee.getServices().startFlow(new IssuerFlow.IssuanceRequester(
+                        new Amount<>(amount, ContractsDSL.USD), payeeParty, ISSUE_REF, trader)).getResultFuture();
+            case PAY:
+                return payer.getServices().startFlow(new PaymentFlow(new Amount<>(amount, usd), payeeParty)).getResultFuture();
+            case EXCHANGE:
+                return payer.getServices().startFlow(new ExampleFlow.MasterFxFlow(
+                        payeeParty, trader, new Amount<>(amount, usd))).getResultFuture();
+            default:
+                throw new IllegalArgumentException("Unknown operation " + operation);
+        }
+    }
+
+    private Operation pick() {
+        int total = 0;
+        for (int weight : mix.values()) {
+            total += weight;
+        }
+
+        int roll = random.nextInt(total);
+        for (Map.Entry<Operation, Integer> entry : mix.entrySet()) {
+            roll -= entry.getValue();
+            if (roll < 0) {
+                return entry.getKey();
+            }
+        }
+
+        throw new IllegalStateException("Empty mix");
+    }
+
+    private String report(long elapsedNanos) throws IOException {
+        double seconds = elapsedNanos / 1e9;
+
+        Map<String, Object> config = new LinkedHashMap<>();
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        mix.forEach((operation, weight) -> weights.put(operation.label(), weight));
+        config.put("mix", weights);
+        config.put("mode", rate > 0 ? "open" : "closed");
+        config.put("rate", rate);
+        config.put("concurrency", concurrency);
+        config.put("warmupSeconds", warmupSeconds);
+        config.put("durationSeconds", durationSeconds);
+        config.put("amount", amount);
+
+        Map<String, Object> operations = new LinkedHashMap<>();
+        for (Operation operation : Operation.values()) {
+            Stats operationStats = stats.get(operation);
+            if (operationStats.started.sum() > 0) {
+                operations.put(operation.label(), operationStats.summary(seconds));
+            }
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("config", config);
+        report.put("elapsedSeconds", seconds);
+        report.put("total", total.summary(seconds));
+        report.put("operations", operations);
+
+        return new ObjectMapper().writerWithDefaultPrettyPrinter().writeValueAsString(report);
+    }
+
+    private static Map<Operation, Integer> parseMix(String spec) {
+        Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+
+        for (String part : spec.split(",")) {
+            String[] weighted = part.trim().split("=");
+            int weight = weighted.length > 1 ? Integer.parseInt(weighted[1].trim()) : 1;
+
+            if (weight < 0) {
+                throw new IllegalArgumentException("Negative weight in fx.load.mix: " + part);
+            }
+            if (weight > 0) {
+                mix.put(Operation.valueOf(weighted[0].trim().toUpperCase()), weight);
+            }
+        }
+
+        if (mix.isEmpty()) {
+            throw new IllegalArgumentException("fx.load.mix has no operations: " + spec);
+        }
+
+        return mix;
+    }
+
+    private static final class Stats {
+        private final LongAdder started = new LongAdder();
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+        private void fail(Throwable t) {
+            Throwable cause = Throwables.getRootCause(t);
+            String reason = cause.getClass().getSimpleName() + (cause.getMessage() == null ? "" : ": " + cause.getMessage());
+
+            latency.fail();
+            errors.computeIfAbsent(reason, r -> new LongAdder()).increment();
+        }
+
+        private Map<String, Object> summary(double seconds) {
+            long succeeded = latency.getCount();
+            long failed = latency.getFailures();
+
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("started", started.sum());
+            summary.put("succeeded", succeeded);
+            summary.put("failed", failed);
+            summary.put("throughputPerSecond", seconds > 0 ? succeeded / seconds : 0);
+
+            if (succeeded > 0) {
+                Map<String, Object> millis = new LinkedHashMap<>();
+                millis.put("mean", LatencyHistogram.toMillis(latency.getTotalNanos() / succeeded));
+                millis.put("p50", LatencyHistogram.toMillis(latency.quantileNanos(0.5)));
+                millis.put("p90", LatencyHistogram.toMillis(latency.quantileNanos(0.9)));
+                millis.put("p99", LatencyHistogram.toMillis(latency.quantileNanos(0.99)));
+                millis.put("p999", LatencyHistogram.toMillis(latency.quantileNanos(0.999)));
+                millis.put("max", LatencyHistogram.toMillis(latency.getMaxNanos()));
+                summary.put("latencyMillis", millis);
+            }
+
+            List<Map.Entry<String, LongAdder>> byCount = new ArrayList<>(errors.entrySet());
+            byCount.sort((a, b) -> Long.compare(b.getValue().sum(), a.getValue().sum()));
+
+            Map<String, Long> topErrors = new LinkedHashMap<>();
+            for (Map.Entry<String, LongAdder> entry : byCount.subList(0, Math.min(TOP_ERRORS, byCount.size()))) {
+                topErrors.put(entry.getKey(), entry.getValue().sum());
+            }
+            summary.put("errors", topErrors);
+
+            return summary;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.service;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.quantileNanos(0.5));
+        assertEquals(0, histogram.quantileNanos(0.99));
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long nanos = 1; nanos <= 50; nanos++) {
+            histogram.record(nanos);
+        }
+
+        assertEquals(25, histogram.quantileNanos(0.5));
+        assertEquals(50, histogram.quantileNanos(1.0));
+        assertEquals(1, histogram.quantileNanos(0.0));
+        assertEquals(10, histogram.countAtOrBelow(10));
+    }
+
+    @Test
+    public void largeValuesAreWithinABucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 1000; i++) {
+            histogram.record(i * 1_000_000L);
+        }
+
+        assertWithinBucket(500_000_000L, histogram.quantileNanos(0.5));
+        assertWithinBucket(990_000_000L, histogram.quantileNanos(0.99));
+        assertEquals(1_000_000_000L, histogram.getMaxNanos());
+        assertTrue(histogram.quantileNanos(1.0) <= histogram.getMaxNanos());
+    }
+
+    @Test
+    public void totalsAndFailuresAreCountedApart() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(100);
+        histogram.record(300);
+        histogram.record(-5);
+        histogram.fail();
+
+        assertEquals(3, histogram.getCount());
+        assertEquals(1, histogram.getFailures());
+        assertEquals(400, histogram.getTotalNanos());
+        assertEquals(300, histogram.getMaxNanos());
+        assertEquals(1, histogram.countAtOrBelow(0));
+    }
+
+    private static void assertWithinBucket(long expected, long actual) {
+        assertTrue("expected about " + expected + ", was " + actual, Math.abs(actual - expected) <= expected / 64);
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.service;
+
+import com.example.models.CurrencyRate;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Currency;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RateMatrixTest {
+
+    private static final Currency USD = Currency.getInstance("USD");
+    private static final Currency EUR = Currency.getInstance("EUR");
+    private static final Currency GBP = Currency.getInstance("GBP");
+    private static final Currency CHF = Currency.getInstance("CHF");
+
+    private static final float DELTA = 1e-6f;
+
+    @Test
+    public void bookedPairsAreReturnedAsBooked() {
+        RateMatrix matrix = RateMatrix.of(Arrays.asList(
+                new CurrencyRate("USD", "EUR", 0.1f),
+                new CurrencyRate("EUR", "GBP", 0.3f)), USD);
+
+        assertEquals(0.1f, matrix.rate(USD, EUR), DELTA);
+        assertEquals(0.3f, matrix.rate(EUR, GBP), DELTA);
+    }
+
+    @Test
+    public void samePairIsFree() {
+        RateMatrix matrix = RateMatrix.of(Arrays.asList(new CurrencyRate("USD", "EUR", 0.1f)), USD);
+
+        assertEquals(0f, matrix.rate(EUR, EUR), DELTA);
+        assertEquals(0f, matrix.rate(USD, USD), DELTA);
+    }
+
+    @Test
+    public void crossPairsAreTriangulatedThroughTheBase() {
+        RateMatrix matrix = RateMatrix.of(Arrays.asList(
+                new CurrencyRate("USD", "EUR", 0.1f),
+                new CurrencyRate("USD", "GBP", 0.2f)), USD);
+
+        // Factors 0.9 and 0.8 from USD, so EUR to GBP pays 0.8 / 0.9 per unit.
+        assertEquals(1 - 0.8 / 0.9, matrix.rate(EUR, GBP), DELTA);
+        assertEquals(1 - 0.9 / 0.8, matrix.rate(GBP, EUR), DELTA);
+    }
+
+    @Test
+    public void inverseBasePairsGiveTheBaseFactor() {
+        RateMatrix matrix = RateMatrix.of(Arrays.asList(new CurrencyRate("EUR", "USD", 0.1f)), USD);
+
+        assertEquals(0.1f, matrix.rate(EUR, USD), DELTA);
+        assertEquals(1 - 1 / 0.9, matrix.rate(USD, EUR), DELTA);
+    }
+
+    @Test
+    public void unknownAndUnreachablePairsAreNaN() {
+        RateMatrix matrix = RateMatrix.of(Arrays.asList(
+                new CurrencyRate("USD", "EUR", 0.1f),
+                new CurrencyRate("GBP", "CHF", 0.2f)), USD);
+
+        assertTrue(Float.isNaN(matrix.rate(USD, Currency.getInstance("JPY"))));
+        assertTrue(Float.isNaN(matrix.rate(EUR, GBP)));
+        assertEquals(0.2f, matrix.rate(GBP, CHF), DELTA);
+    }
+
+    @Test
+    public void withMatchesARebuildForCrossPairs() {
+        List<CurrencyRate> rates = new ArrayList<>(Arrays.asList(
+                new CurrencyRate("USD", "EUR", 0.1f),
+                new CurrencyRate("USD", "GBP", 0.2f),
+                new CurrencyRate("USD", "CHF", 0.05f)));
+        RateMatrix before = RateMatrix.of(rates, USD);
+
+        CurrencyRate update = new CurrencyRate("EUR", "GBP", 0.15f);
+        rates.add(update);
+
+        assertSame(RateMatrix.of(rates, USD), before.with(update, rates));
+    }
+
+    @Test
+    public void withMatchesARebuildForBasePairs() {
+        List<CurrencyRate> rates = new ArrayList<>(Arrays.asList(
+                new CurrencyRate("USD", "EUR", 0.1f),
+                new CurrencyRate("USD", "GBP", 0.2f),
+                new CurrencyRate("EUR", "CHF", 0.05f)));
+        RateMatrix before = RateMatrix.of(rates, USD);
+
+        CurrencyRate update = new CurrencyRate("USD", "EUR", 0.12f);
+        rates.set(0, update);
+
+        assertSame(RateMatrix.of(rates, USD), before.with(update, rates));
+    }
+
+    @Test
+    public void withANewCurrencyRebuilds() {
+        List<CurrencyRate> rates = new ArrayList<>(Arrays.asList(new CurrencyRate("USD", "EUR", 0.1f)));
+        RateMatrix before = RateMatrix.of(rates, USD);
+
+        CurrencyRate update = new CurrencyRate("USD", "GBP", 0.2f);
+        rates.add(update);
+        RateMatrix after = before.with(update, rates);
+
+        assertEquals(0.2f, after.rate(USD, GBP), DELTA);
+        assertEquals(1 - 0.8 / 0.9, after.rate(EUR, GBP), DELTA);
+        assertTrue(Float.isNaN(before.rate(USD, GBP)));
+    }
+
+    private static void assertSame(RateMatrix expected, RateMatrix actual) {
+        List<Currency> currencies = Arrays.asList(USD, EUR, GBP, CHF);
+
+        for (Currency from : currencies) {
+            for (Currency to : currencies) {
+                float want = expected.rate(from, to);
+                float got = actual.rate(from, to);
+
+                if (Float.isNaN(want)) {
+                    assertTrue(from + "/" + to + " should be NaN, was " + got, Float.isNaN(got));
+                } else {
+                    assertEquals(from + "/" + to, want, got, DELTA);
+                }
+            }
+        }
+    }
+}